@@ -61,8 +61,9 @@ public class Client {
          */
         ProtocolConnection messenger = new ProtocolConnection(null, out, in, handler);
 
-        // Synchronisation object
-        Sync sync = new Sync(messenger, in);
+        // Synchronisation object, reads the responses and the pushes in the background
+        Sync sync = new Sync(messenger, in, handler);
+        sync.start();
 
         // Command handler object
         Commands commands = new Commands(tasks, users, boards, messenger, sync, authentification);
@@ -61,7 +61,8 @@ public class ClientAuth{
     public void loginRequest(){
         if(state == 1){
             try{
-                sync.login(null, password);
+                // Called while the response is handled, so it can not wait for the next one
+                sync.loginAsync(null, password);
             }catch(IOException e){
                 System.out.println("Login failed: " + e.getMessage());
                 e.printStackTrace();
@@ -1,12 +1,19 @@
 package client;
 
 import common.Boards;
+import common.Task;
 import common.TaskContainer;
+import common.TaskFrames;
 import common.UserContainer;
 import data.*;
 import messages.JiraMessageHandler;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Communication handler. What the client does when it receives a type of a message
@@ -17,6 +24,24 @@ public class ClientMessage implements JiraMessageHandler {
     private final Boards boards;
     private final ClientAuth auth;
 
+    // Number of the last change of the server which the tasks include
+    private volatile long sequence = -1;
+
+    // Number of the last resync, its first frame drops the old tasks
+    private long resyncedAt = -1;
+
+    // Boards of the last pull, whose tasks the number covers, and the
+    // boards of the pull on the way. Null for all the tasks
+    private long[] syncedBoards;
+    private long[] pullingBoards;
+
+    // Set when a message pushed by the server has been handled
+    private boolean pushed = false;
+
+    // Versions of the tasks on the server, as last received. The local
+    // container numbers its own changes, so they are kept apart
+    private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+
     public ClientMessage(TaskContainer tasks, UserContainer users, Boards boards, ClientAuth auth) {
         this.tasks = tasks;
         this.users = users;
@@ -26,19 +51,20 @@ public class ClientMessage implements JiraMessageHandler {
 
     @Override
     public RawError createTask(RawTask newTask) {
-        tasks.newTask(newTask);
+        tasks.replaceTask(newTask);
         return null;
     }
 
     @Override
     public RawError removeTask(Long taskId) {
         tasks.removeTask(taskId);
+        versions.remove(taskId);
         return null;
     }
 
     @Override
     public RawError updateTask(RawTask updatedTask) {
-        tasks.updateTask(updatedTask);
+        tasks.replaceTask(updatedTask);
         return null;
     }
 
@@ -115,9 +141,144 @@ public class ClientMessage implements JiraMessageHandler {
         return null;
     }
 
+    /**
+     * Get the number of the last change of the server which the tasks
+     * include, for asking only the changes since it
+     * @return the number, -1 if the tasks have not been synced
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Start a pull of the changes of the tasks in some boards. The number
+     * of the last pull only covers the boards of that pull, so the changes
+     * of other boards start from the beginning
+     * @param boardIds IDs of the boards in ascending order, null for all the tasks
+     * @return number of the last change to ask the changes since, -1 for everything
+     */
+    public synchronized long startPull(long[] boardIds) {
+        pullingBoards = boardIds;
+        resyncedAt = -1;
+
+        return Arrays.equals(boardIds, syncedBoards) ? sequence : -1;
+    }
+
+    /**
+     * Get the version of a task on the server, which the changes of the
+     * task are based on
+     * @param taskId ID of the task
+     * @return the version, null if the task has not been received with one
+     */
+    public Long getServerVersion(long taskId) {
+        return versions.get(taskId);
+    }
+
+    /**
+     * Note the versions of the tasks of a received frame
+     * @param frame the frame
+     */
+    private void noteVersions(RawProject frame) {
+        long[] frameVersions = TaskFrames.versions(frame);
+        for(int i = 0; i < frame.tasks.length; i++){
+            if(frameVersions == null)
+                versions.remove(frame.tasks[i].taskId);
+            else
+                versions.put(frame.tasks[i].taskId, frameVersions[i]);
+        }
+    }
+
+    /**
+     * Check whether the last handled message was pushed by the server
+     * instead of answering a request, and clear the mark
+     * @return true if the message was pushed
+     */
+    public boolean takePushed() {
+        boolean out = pushed;
+        pushed = false;
+        return out;
+    }
+
+    /**
+     * Get the tasks in the boards of the pull on the way
+     * @return the tasks, all of them if the pull is not limited to boards
+     */
+    private Collection<Task> pulledTasks() {
+        if(pullingBoards == null)
+            return tasks.getTasks();
+
+        Map<Long, Task> out = new HashMap<>();
+        for(long board: pullingBoards){
+            for(Task task: tasks.getTasks(board))
+                out.put(task.getId(), task);
+        }
+
+        return out.values();
+    }
+
     @Override
     public RawError setProject(RawProject rawProject) {
-        boards.registerBoard(rawProject);
+        // Changes of the subscribed boards
+        if(rawProject.projectId == TaskFrames.PUSH){
+            for(RawTask task: rawProject.tasks)
+                tasks.replaceTask(task);
+
+            noteVersions(rawProject);
+            pushed = true;
+            return null;
+        }
+
+        // IDs of the removed tasks of the subscribed boards
+        if(rawProject.projectId == TaskFrames.REMOVED){
+            for(long id: TaskFrames.removedIds(rawProject)){
+                tasks.removeTask(id);
+                versions.remove(id);
+            }
+
+            pushed = true;
+            return null;
+        }
+
+        // Frames of changes since the last sync
+        if(rawProject.projectId == TaskFrames.CHANGES || rawProject.projectId == TaskFrames.RESYNC){
+            long frameSequence = Long.parseLong(rawProject.projectName);
+
+            synchronized (this){
+                // A resync has all the tasks of the boards, the ones which are not in it have been removed
+                if(rawProject.projectId == TaskFrames.RESYNC && frameSequence != resyncedAt){
+                    for(Task task: pulledTasks()){
+                        tasks.removeTask(task);
+                        versions.remove(task.getId());
+                    }
+
+                    resyncedAt = frameSequence;
+                }
+
+                syncedBoards = pullingBoards;
+                sequence = frameSequence;
+            }
+
+            for(RawTask task: rawProject.tasks)
+                tasks.replaceTask(task);
+            noteVersions(rawProject);
+
+            return null;
+        }
+
+        // A frame of a listing only carries tasks
+        if(TaskFrames.isListing(rawProject)){
+            for(RawTask task: rawProject.tasks)
+                tasks.replaceTask(task);
+            noteVersions(rawProject);
+
+            return null;
+        }
+
+        // A board dump, the tasks are replaced as they are on the server
+        boards.registerBoard(rawProject.projectId, rawProject.projectName);
+        for(RawTask task: rawProject.tasks)
+            tasks.replaceTask(task);
+        noteVersions(rawProject);
         return null;
     }
 }
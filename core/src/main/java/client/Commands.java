@@ -83,11 +83,14 @@ class Commands {
             return;
         }
 
+        // Only the changed field is sent to the server
+        TaskPatch patch = new TaskPatch(subject.getId());
+
         // Handle next token
         switch (tokens[level]){
             case "title":
                 // task set title <id> <title>
-                subject.setTitle(tokens[level + 2]);
+                patch.title(tokens[level + 2]);
                 break;
 
             case "description":
@@ -97,23 +100,28 @@ class Commands {
                     builder.append(" ");
                 }
                 // task set description <id> <title>
-                subject.setDescription(builder.toString());
+                patch.description(builder.toString());
                 break;
 
             case "deadline":
                 // task set deadline <id> <deadline>
                 // TODO: not in MS format
-                subject.setDeadlineMS(Long.parseLong(tokens[level + 2]));
+                patch.deadline(Long.parseLong(tokens[level + 2]));
                 break;
 
             case "priority":
                 // task set priority <id> <priority>
-                subject.setPriority(Integer.parseInt(tokens[level + 2]));
+                patch.priority(Integer.parseInt(tokens[level + 2]));
                 break;
 
             case "mastertask":
                 // task set mastertask <id> <mastertask id>
-                subject.setMasterTaskId(Long.parseLong(tokens[level + 2]));
+                long masterTaskId = Long.parseLong(tokens[level + 2]);
+                if(taskContainer.createsCycle(subject.getId(), masterTaskId)){
+                    System.out.println("Task Set: Master task can not be a subtask of the task");
+                    return;
+                }
+                patch.masterTask(masterTaskId);
                 break;
 
             default:
@@ -122,7 +130,7 @@ class Commands {
         }
 
         // Update the subject in server
-        sync.updateTask(subject);
+        sendPatch("Task Set", patch);
     }
 
     /**
@@ -144,16 +152,19 @@ class Commands {
             return;
         }
 
+        // Only the added board or assignee is sent to the server
+        TaskPatch patch = new TaskPatch(subject.getId());
+
         // Handle the next token
         switch (tokens[level]){
             case "board":
                 // task add board <id> <board id>
-                subject.addBoard(Long.parseLong(tokens[level + 2]));
+                patch.addBoard(Long.parseLong(tokens[level + 2]));
                 break;
 
             case "assignee":
                 // task add assignee <id> <user id>
-                subject.addAssignee(userContainer.getUser(Long.parseLong(tokens[level + 2])));
+                patch.addAssignee(Long.parseLong(tokens[level + 2]));
                 break;
 
             default:
@@ -162,7 +173,22 @@ class Commands {
         }
 
         // Update the task in server
-        sync.updateTask(subject);
+        sendPatch("Task Add", patch);
+    }
+
+    /**
+     * Send a patch to the server. The local task is changed by the reply
+     * of the server, so a rejected patch leaves it as it is on the server
+     * @param command name of the command, for the messages
+     * @param patch the patch
+     * @exception IOException If communication with server fails
+     */
+    private void sendPatch(String command, TaskPatch patch) throws IOException {
+        try{
+            sync.patchTask(patch);
+        }catch (InvalidResponseException e){
+            System.out.println(command + ": Server rejected the change");
+        }
     }
 
     /**
@@ -191,7 +217,7 @@ class Commands {
             case "info":
                 Task infoTask = taskContainer.getTask(Long.parseLong(tokens[level + 1]));
                 if(infoTask != null)
-                    System.out.println(infoTask.toString());
+                    System.out.println(infoTask.toString(userContainer));
                 else
                     System.out.println("Task with this ID does not exist");
                 break;
@@ -199,14 +225,29 @@ class Commands {
                 Task completeTask = taskContainer.getTask(Long.parseLong(tokens[level + 1]));
                 if(completeTask != null) {
                     // Set completion status
-                    completeTask.complete();
+                    TaskPatch completePatch = new TaskPatch(completeTask.getId()).completed(true);
 
                     // Update the task in server
-                    sync.updateTask(completeTask);
+                    sendPatch("Task Complete", completePatch);
                 }
                 else
                     System.out.println("Task with this ID does not exist");
                 break;
+            case "subtasks":
+                long masterId = Long.parseLong(tokens[level + 1]);
+                try{
+                    sync.getSubtasks(masterId, true);
+                }catch (InvalidResponseException e){
+                    System.out.println("Task with this ID does not exist");
+                    break;
+                }
+
+                printBrief(taskContainer.getSubtree(masterId));
+                TaskRollup rollup = taskContainer.getRollup(masterId);
+                System.out.printf("Subtasks completed: %d/%d\n", rollup.getCompletedCount(), rollup.getChildCount());
+                if(rollup.getEarliestDeadlineMS() != 0)
+                    System.out.println("Earliest deadline: " + rollup.getEarliestDeadlineMS());
+                break;
             case "set":
                 taskSet(tokens, level + 1);
                 break;
@@ -226,7 +267,7 @@ class Commands {
      */
     private void printTasks(@NotNull List<Task> tasks){
         for(Task task: tasks){
-            System.out.println(task.toString());
+            System.out.println(task.toString(userContainer));
         }
     }
 
@@ -285,10 +326,18 @@ class Commands {
                     sync.getBoardTasks(pullID);
                 }else{
                     sync.getBoards();
-                    sync.getTasks(boards.getIDSet());
+                    sync.pullChanges(boards.getIDSet());
                 }
                 break;
 
+            case "subscribe":
+            case "unsubscribe":
+                if(checkArgumentLength("Board", tokens.length, level + 2))
+                    return;
+                long subscribeID = Long.parseLong(tokens[level + 1]);
+                sync.subscribe(subscribeID, tokens[level].equals("subscribe"));
+                break;
+
             case "list":
                 Set<Long> boardList = boards.getIDSet();
                 for(long boardID: boardList){
@@ -398,7 +447,7 @@ class Commands {
                 break;
 
             case "pull":
-                sync.getTasks(boards.getIDSet());
+                sync.pullChanges(boards.getIDSet());
                 break;
 
             case "user":
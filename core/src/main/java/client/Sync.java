@@ -1,7 +1,13 @@
 package client;
 
+import common.BoardSubscription;
 import common.Permissions;
+import common.SubtaskRequest;
 import common.Task;
+import common.TaskChanges;
+import common.TaskPatch;
+import common.TaskQuery;
+import common.TaskUpdate;
 import data.RawLogin;
 import data.RawProject;
 import data.RawTask;
@@ -12,55 +18,365 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Requests to the server. A request does not wait for the responses of the
+ * earlier ones, many of them can be on the way at once. The server answers
+ * the requests of a connection in the order they were sent, so every
+ * response belongs to the oldest request which has not been answered yet.
+ * The Async methods return a future which is completed when the response
+ * has been handled, the other methods wait for it.
+ * Responses are read by a reader thread after start(), before that they
+ * are read by the thread which waits for them.
+ */
 public class Sync {
+    // Number of requests which can wait for their responses at once
+    private static final int MAX_IN_FLIGHT = 1024;
+
     private final ProtocolConnection connection;
     private final DataInputStream in;
+    private final ClientMessage handler;
+
+    // Requests which wait for their responses, oldest first
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final Object sendLock = new Object();
+    private final Object readLock = new Object();
+    private final AtomicLong requestIds = new AtomicLong();
+    private volatile Thread reader;
+    private volatile IOException failure;
+    private volatile CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+    /**
+     * Request which waits for its response
+     */
+    private static class Pending {
+        final long id;
+        final MessageType request;
+        final MessageType response;
+        final Set<MessageType> parts;
+        final boolean counted;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * Main constructor
+         * @param id correlation ID of the request
+         * @param request type of the request
+         * @param response type which ends the response
+         * @param parts types which may come before the end
+         * @param counted true if the request holds a permit of MAX_IN_FLIGHT
+         */
+        Pending(long id, MessageType request, MessageType response, Set<MessageType> parts, boolean counted){
+            this.id = id;
+            this.request = request;
+            this.response = response;
+            this.parts = parts;
+            this.counted = counted;
+        }
+
+        /**
+         * Give the permit of the request back
+         * @param inFlight permits of the requests
+         */
+        void release(Semaphore inFlight){
+            if(counted)
+                inFlight.release();
+        }
+    }
 
-    public Sync(ProtocolConnection connection, DataInputStream in){
+    public Sync(ProtocolConnection connection, DataInputStream in, ClientMessage handler){
         this.connection = connection;
         this.in = in;
+        this.handler = handler;
+    }
+
+    /**
+     * Start reading the responses and the pushes in a thread of their own
+     */
+    public void start(){
+        Thread thread = new Thread(() -> {
+            try{
+                while(true)
+                    readResponse();
+            }catch (IOException e){
+                fail(e);
+            }catch (RuntimeException e){
+                fail(new IOException(e));
+            }
+        }, "sync-reader");
+
+        thread.setDaemon(true);
+        reader = thread;
+        thread.start();
+    }
+
+    /**
+     * Fail the waiting requests and the ones made later. Called when the
+     * connection breaks
+     * @param e the cause
+     */
+    private void fail(IOException e){
+        failure = e;
+
+        Pending request;
+        while((request = pending.poll()) != null){
+            request.release(inFlight);
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Send a request. Waits only if MAX_IN_FLIGHT requests are waiting
+     * for their responses already
+     * @param message the request
+     * @param type type of the request
+     * @param response type of the message which ends the response
+     * @param parts types of the messages which may come before the end
+     * @return future which is completed when the response has been handled
+     * @throws IOException If sending fails
+     */
+    private CompletableFuture<Void> request(Object message, MessageType type, MessageType response, MessageType... parts) throws IOException {
+        // The reader thread can not wait for the responses it reads itself
+        boolean counted = Thread.currentThread() != reader;
+
+        while(counted && !inFlight.tryAcquire()){
+            // Nobody else reads the responses which would make room
+            if(reader == null){
+                readResponse();
+                continue;
+            }
+
+            try{
+                inFlight.acquire();
+                break;
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send");
+            }
+        }
+
+        Pending request = new Pending(requestIds.incrementAndGet(), type, response, Set.of(parts), counted);
+
+        // Queued in the order of sending
+        synchronized (sendLock){
+            if(failure != null){
+                request.release(inFlight);
+                throw new IOException("Connection has failed", failure);
+            }
+
+            pending.add(request);
+            try{
+                connection.sendMessage(message, type);
+            }catch (IOException e){
+                fail(e);
+                throw e;
+            }
+
+            last = request.future;
+        }
+
+        return request.future;
+    }
+
+    /**
+     * Read one message and give it to the request it belongs to. Pushes of
+     * the subscribed boards belong to no request
+     * @throws IOException If reading fails
+     */
+    private void readResponse() throws IOException {
+        synchronized (readLock){
+            MessageType responseType = connection.readMessage();
+
+            // Changes of the subscribed boards can arrive between the responses
+            if(handler.takePushed())
+                return;
+
+            Pending request = pending.peek();
+            if(request == null){
+                System.out.println("Unexpected message from server: " + responseType.name());
+                return;
+            }
+
+            // More of the response is coming
+            if(request.parts.contains(responseType))
+                return;
+
+            pending.poll();
+            request.release(inFlight);
+
+            if(responseType == request.response)
+                request.future.complete(null);
+            else
+                request.future.completeExceptionally(new InvalidResponseException(
+                        "Request " + request.id + " (" + request.request.name() + "): expected " + request.response.name() + ", received " + responseType.name()
+                ));
+        }
+    }
+
+    /**
+     * Wait until a request has been answered
+     * @param future future of the request
+     * @throws IOException If the connection fails
+     * @throws InvalidResponseException If the server answers with something else than expected
+     */
+    private void await(CompletableFuture<Void> future) throws IOException {
+        if(Thread.currentThread() == reader)
+            throw new IllegalStateException("Can not wait for a response while handling one, use the Async methods");
+
+        // Without the reader thread the waiting thread reads the responses
+        while(reader == null && !future.isDone())
+            readResponse();
+
+        try{
+            future.get();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a response");
+        }catch (ExecutionException e){
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            throw new IOException(e.getCause());
+        }
     }
 
-    private MessageType waitForResponse() throws IOException {
-        return connection.readMessage();
+    /**
+     * Wait until all the requests sent so far have been answered
+     * @throws IOException If the connection fails
+     * @throws InvalidResponseException If the server answers a request with something else than expected
+     */
+    public void awaitAll() throws IOException {
+        await(last);
     }
 
     /**
-     * Update task request. Should be responded to with RESPONSE
-     * UPDATETASK -> RESPONSE
+     * Update task request. If the version of the task on the server is
+     * known, the update is based on it, and it is rejected with ERROR if
+     * another client has changed the task since. Updates of one task which
+     * are on the way at once are based on the same version, so only the
+     * first of them can succeed. Should be responded to with the task and
+     * its new version, and RESPONSE
+     * GETSERVERTASKLIST(update) -> SETPROJECT -> RESPONSE
+     * UPDATETASK -> SETPROJECT -> RESPONSE (version is not known)
+     * @param task
+     * @return future which is completed when the task has been updated
+     * @throws IOException
+     */
+    public CompletableFuture<Void> updateTaskAsync(Task task) throws IOException {
+        Long version = handler.getServerVersion(task.getId());
+        if(version == null)
+            return request(task.getRawTask(), MessageType.UPDATETASK, MessageType.RESPONSE, MessageType.SETPROJECT);
+
+        return request(new TaskUpdate(task.getRawTask(), version), MessageType.GETSERVERTASKLIST, MessageType.RESPONSE, MessageType.SETPROJECT);
+    }
+
+    /**
+     * Update task request. If the version of the task on the server is
+     * known, the update is based on it, and it is rejected with ERROR if
+     * another client has changed the task since. Should be responded to
+     * with the task and its new version, and RESPONSE
+     * GETSERVERTASKLIST(update) -> SETPROJECT -> RESPONSE
+     * UPDATETASK -> SETPROJECT -> RESPONSE (version is not known)
      * @param task
      * @throws IOException
      */
     public void updateTask(Task task) throws IOException {
-        // Send the message
-        connection.sendMessage(task.getRawTask(), MessageType.UPDATETASK);
+        await(updateTaskAsync(task));
+    }
 
-        // Wait for RESPONSE type message
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.RESPONSE){
-            // Handle Error
-            throw new InvalidResponseException("Expected RESPONSE, received " + responseType.name());
+    /**
+     * Task patch request, changes only the fields in the patch. Patches of
+     * different fields do not conflict, so the patch is only based on a
+     * version if it has an expected version. Should be responded to with
+     * the task and its new version, and RESPONSE, or ERROR if the task has
+     * changed since the expected version
+     * GETSERVERTASKLIST(patch) -> SETPROJECT -> RESPONSE
+     * @param patch
+     * @return future which is completed when the task has been patched
+     * @throws IOException
+     */
+    public CompletableFuture<Void> patchTaskAsync(@NotNull TaskPatch patch) throws IOException {
+        return request(patch, MessageType.GETSERVERTASKLIST, MessageType.RESPONSE, MessageType.SETPROJECT);
+    }
+
+    /**
+     * Task patch request, changes only the fields in the patch. Should be
+     * responded to with the task and its new version, and RESPONSE, or
+     * ERROR if the task has changed since the expected version
+     * GETSERVERTASKLIST(patch) -> SETPROJECT -> RESPONSE
+     * @param patch
+     * @throws IOException
+     */
+    public void patchTask(@NotNull TaskPatch patch) throws IOException {
+        await(patchTaskAsync(patch));
+    }
+
+    /**
+     * Task patch request which is only applied if nobody has changed the
+     * task since the client received it. A patch without an expected
+     * version is based on the version of the task on the server, if it is
+     * known. Should be responded to with the task and its new version, and
+     * RESPONSE, or ERROR if the task has changed since
+     * GETSERVERTASKLIST(patch) -> SETPROJECT -> RESPONSE
+     * @param patch
+     * @throws IOException
+     */
+    public void patchTaskIfUnchanged(@NotNull TaskPatch patch) throws IOException {
+        if(patch.expectedVersion == null){
+            Long version = handler.getServerVersion(patch.taskId);
+            if(version != null)
+                patch.basedOn(version);
         }
+
+        patchTask(patch);
     }
 
     /**
-     * Task creation request. Should be responded to with UPDATETASK (Gets ID from server)
-     * CREATETASK -> UPDATETASK
+     * Task creation request. Should be responded to with the task and its
+     * version, and UPDATETASK (Gets ID from server)
+     * CREATETASK -> SETPROJECT -> UPDATETASK
+     * @param task
+     * @return future which is completed when the created task has been received
+     * @throws IOException
+     */
+    public CompletableFuture<Void> createTaskAsync(@NotNull Task task) throws IOException {
+        return request(task.getRawTask(), MessageType.CREATETASK, MessageType.UPDATETASK, MessageType.SETPROJECT);
+    }
+
+    /**
+     * Task creation request. Should be responded to with the task and its
+     * version, and UPDATETASK (Gets ID from server)
+     * CREATETASK -> SETPROJECT -> UPDATETASK
      * @param task
      * @throws IOException
      */
     public void createTask(@NotNull Task task) throws IOException {
-        // Send the message
-        connection.sendMessage(task.getRawTask(), MessageType.CREATETASK);
+        await(createTaskAsync(task));
+    }
 
-        // Wait for UPDATETASK type message
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.UPDATETASK){
-            // Handle error
-            throw new InvalidResponseException("Expected UPDATETASK, received " + responseType.name());
-        }
+    /**
+     * Task removal request. Should be responded to with RESPONSE
+     * REMOVETASK -> RESPONSE
+     * @param task
+     * @return future which is completed when the task has been removed
+     * @throws IOException
+     */
+    public CompletableFuture<Void> removeTaskAsync(Task task) throws IOException {
+        return request(task.getId(), MessageType.REMOVETASK, MessageType.RESPONSE);
     }
 
     /**
@@ -70,46 +386,154 @@ public class Sync {
      * @throws IOException
      */
     public void removeTask(Task task) throws IOException {
-        // Send the message
-        connection.sendMessage(task.getId(), MessageType.REMOVETASK);
+        await(removeTaskAsync(task));
+    }
 
-        // Wait for RESPONSE type message
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.RESPONSE){
-            // Handle error
-            throw new InvalidResponseException("Expected RESPONSE, received " + responseType.name());
-        }
+    /**
+     * Gets all the tasks in the board. Should be responded to with frames
+     * of the tasks and RESPONSE after the last one
+     * GETPROJECT -> SETPROJECT... -> RESPONSE
+     * @param id
+     * @return future which is completed when the tasks have been received
+     * @throws IOException
+     */
+    public CompletableFuture<Void> getBoardTasksAsync(Long id) throws IOException {
+        return request(id, MessageType.GETPROJECT, MessageType.RESPONSE, MessageType.SETPROJECT);
     }
 
     /**
-     * Gets all the tasks in the board. Should be responded to with SETPROJECT
-     * GETPROJECT -> SETPROJECT
+     * Gets all the tasks in the board. Should be responded to with frames
+     * of the tasks and RESPONSE after the last one
+     * GETPROJECT -> SETPROJECT... -> RESPONSE
      * @param id
      * @throws IOException
      */
     public void getBoardTasks(Long id) throws IOException {
-        // Send the message
-        connection.sendMessage(id, MessageType.GETPROJECT);
+        await(getBoardTasksAsync(id));
+    }
 
-        // Wait for response and handle it
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.SETPROJECT){
-            // Handle error
-            throw new InvalidResponseException("Expected SETPROJECT, received " + responseType.name());
-        }
+    /**
+     * Gets the tasks which have changed since the last pull, and removes
+     * the ones which have been removed. Should be responded to with frames
+     * of the changed tasks, REMOVETASK for every removed task and RESPONSE
+     * after the last one. If the server does not have the changes since
+     * the last pull anymore, it sends all the tasks instead
+     * GETSERVERTASKLIST(changes since) -> SETPROJECT... -> REMOVETASK... -> RESPONSE
+     * @throws IOException
+     */
+    public void pullChanges() throws IOException {
+        pullChanges((long[]) null);
     }
 
     /**
-     * Gets the tasks of specified boards (given as the argument).
+     * Gets the tasks of the given boards which have changed since the last
+     * pull, like pullChanges(). Tasks which have left the boards are
+     * removed. If the last pull was of other boards, all the tasks of the
+     * boards are sent and the local tasks of the boards which are not among
+     * them are removed
+     * GETSERVERTASKLIST(changes since) -> SETPROJECT... -> REMOVETASK... -> RESPONSE
+     * @param boards
+     * @throws IOException
+     */
+    public void pullChanges(@NotNull Set<Long> boards) throws IOException {
+        long[] boardIds = new long[boards.size()];
+        int index = 0;
+        for(long board: boards)
+            boardIds[index++] = board;
+
+        Arrays.sort(boardIds);
+        pullChanges(boardIds);
+    }
+
+    /**
+     * Gets the changes of the tasks in some boards
+     * @param boardIds IDs of the boards in ascending order, null for all the tasks
+     * @throws IOException
+     */
+    private void pullChanges(long[] boardIds) throws IOException {
+        long since = handler.startPull(boardIds);
+        await(request(
+                new TaskChanges.Request(since, boardIds), MessageType.GETSERVERTASKLIST,
+                MessageType.RESPONSE, MessageType.SETPROJECT, MessageType.REMOVETASK
+        ));
+    }
+
+    /**
+     * Starts or stops receiving the changes of the tasks of a board as they
+     * happen. The changes are handled by the reader thread, or when the
+     * next response is waited for. Should be responded to with RESPONSE
+     * GETSERVERTASKLIST(subscription) -> RESPONSE
+     * @param boardId
+     * @param subscribed true to subscribe, false to unsubscribe
+     * @throws IOException
+     */
+    public void subscribe(long boardId, boolean subscribed) throws IOException {
+        await(request(new BoardSubscription(boardId, subscribed), MessageType.GETSERVERTASKLIST, MessageType.RESPONSE));
+    }
+
+    /**
+     * Gets all the tasks of the server. Should be responded to with frames
+     * of the tasks and RESPONSE after the last one
+     * GETSERVERTASKLIST -> SETPROJECT... -> RESPONSE
+     * @throws IOException
+     */
+    public void getAllTasks() throws IOException {
+        await(request(null, MessageType.GETSERVERTASKLIST, MessageType.RESPONSE, MessageType.SETPROJECT));
+    }
+
+    /**
+     * Gets the tasks of specified boards (given as the argument). The
+     * requests are sent at once and answered in one round trip
      * @param boards
      * @throws IOException
      */
     public void getTasks(@NotNull Set<Long> boards) throws IOException {
         // For every board, send the query
         // TODO: this is costly, tasks can be in multiple boards
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
         for(Long boardID: boards){
-            getBoardTasks(boardID);
+            requests.add(getBoardTasksAsync(boardID));
         }
+
+        for(CompletableFuture<Void> request: requests){
+            await(request);
+        }
+    }
+
+    /**
+     * Gets the page of tasks which match a query. Should be responded to
+     * with frames of the tasks and RESPONSE after the last one
+     * GETSERVERTASKLIST -> SETPROJECT... -> RESPONSE
+     * @param query
+     * @throws IOException
+     */
+    public void queryTasks(@NotNull TaskQuery query) throws IOException {
+        await(request(query, MessageType.GETSERVERTASKLIST, MessageType.RESPONSE, MessageType.SETPROJECT));
+    }
+
+    /**
+     * Gets the subtasks of a task. Should be responded to with frames of
+     * the subtasks and RESPONSE after the last one, or ERROR if the task
+     * does not exist
+     * GETSERVERTASKLIST(subtasks) -> SETPROJECT... -> RESPONSE
+     * @param taskId ID of the master task
+     * @param subtree true for the subtasks at any depth, false for the direct ones
+     * @throws IOException
+     */
+    public void getSubtasks(long taskId, boolean subtree) throws IOException {
+        await(request(new SubtaskRequest(taskId, subtree), MessageType.GETSERVERTASKLIST, MessageType.RESPONSE, MessageType.SETPROJECT));
+    }
+
+    /**
+     * Searches the titles and descriptions of the tasks. The search is a
+     * query ordered by relevance, so it is answered like queryTasks
+     * GETSERVERTASKLIST -> SETPROJECT... -> RESPONSE
+     * @param text the searched words
+     * @param limit maximum number of tasks
+     * @throws IOException
+     */
+    public void searchTasks(String text, int limit) throws IOException {
+        queryTasks(new TaskQuery().text(text).sortBy(TaskQuery.Sort.RELEVANCE, false).page(0, limit));
     }
 
     /**
@@ -118,15 +542,7 @@ public class Sync {
      * @throws IOException
      */
     public void getBoards() throws IOException {
-        // Send the request
-        connection.sendMessage(null, MessageType.GETPROJECTLIST);
-
-        // Wait for the response
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.SETPROJECTLIST){
-            // Handle error
-            throw new InvalidResponseException("Expected SETPROJECTLIST, received " + responseType.name());
-        }
+        await(request(null, MessageType.GETPROJECTLIST, MessageType.SETPROJECTLIST));
     }
 
     /**
@@ -137,33 +553,31 @@ public class Sync {
      * @throws IOException
      */
     public void createBoard(long id, String name) throws IOException {
-        // Send the request
-        connection.sendMessage(new RawProject(id, new RawTask[]{}, name, "URL"), MessageType.SETPROJECT);
+        await(request(new RawProject(id, new RawTask[]{}, name, "URL"), MessageType.SETPROJECT, MessageType.RESPONSE));
+    }
 
-        // Wait for the response
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.RESPONSE){
-            // Handle error
-            throw new InvalidResponseException("Expected RESPONSE, received " + responseType.name());
-        }
+    /**
+     * Login request. Should be responded to with LOGIN. Can be made while
+     * a response is handled, as the next step of logging in
+     * LOGIN -> LOGIN
+     * @param username
+     * @param password
+     * @return future which is completed when the response has been handled
+     * @throws IOException
+     */
+    public CompletableFuture<Void> loginAsync(String username, String password) throws IOException {
+        return request(new RawLogin(username, password), MessageType.LOGIN, MessageType.LOGIN);
     }
 
     /**
      * Login request. Should be responded to with LOGIN
-     * SETPROJECT -> LOGIN
+     * LOGIN -> LOGIN
      * @param username
      * @param password
      * @throws IOException
      */
     public void login(String username, String password) throws IOException {
-        // Send the request
-        connection.sendMessage(new RawLogin(username, password), MessageType.LOGIN);
-
-        // Wait for the response
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.LOGIN){
-            throw new InvalidResponseException("Expected LOGIN, received " + responseType.name());
-        }
+        await(loginAsync(username, password));
     }
 
     public void addEmail(String email) throws IOException {
@@ -178,12 +592,7 @@ public class Sync {
                 null
         );
 
-        connection.sendMessage(rawUser, MessageType.USERINFO);
-        // Wait for the response
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.RESPONSE){
-            throw new InvalidResponseException("Expected RESPONSE, received " + responseType.name());
-        }
+        await(request(rawUser, MessageType.USERINFO, MessageType.RESPONSE));
     }
 
     public void setProjectPermission(long projectID, Permissions permission, String username) throws IOException {
@@ -198,12 +607,7 @@ public class Sync {
                 null
         );
 
-        connection.sendMessage(rawUser, MessageType.USERINFO);
-        // Wait for the response
-        MessageType responseType = waitForResponse();
-        if(responseType != MessageType.RESPONSE){
-            throw new InvalidResponseException("Expected RESPONSE, received " + responseType.name());
-        }
+        await(request(rawUser, MessageType.USERINFO, MessageType.RESPONSE));
     }
     /*
     public void addFriend(String friendUsername) throws IOException {
@@ -0,0 +1,382 @@
+package common;
+
+import data.RawTask;
+import data.RawUser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compact binary format of tasks, users and boards. A binary file starts
+ * with the magic bytes "MJB" and a format version, followed by records.
+ * Every record is prefixed by its length, so a reader can skip records.
+ * Strings are stored as UTF-8 and arrays as their length followed by the
+ * elements. A length of -1 stands for null.
+ */
+public class BinaryCodec {
+    /**
+     * Encoder and decoder of one kind of record. The input of read() holds
+     * exactly the payload of one record, so its available() is the number
+     * of bytes left in the record
+     * @param <RawType> type of the record
+     */
+    interface RecordCodec<RawType> {
+        void write(DataOutput out, RawType record) throws IOException;
+        RawType read(DataInputStream in) throws IOException;
+    }
+
+    private static final byte[] MAGIC = {'M', 'J', 'B'};
+    private static final byte VERSION = 1;
+
+    // Longest record a reader accepts. A longer length prefix is a broken file
+    static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Codec of RawTask records
+     */
+    static final RecordCodec<RawTask> TASK = new RecordCodec<>() {
+        @Override
+        public void write(DataOutput out, RawTask task) throws IOException {
+            Long createdBy = task.createdBy;
+
+            out.writeLong(task.taskId);
+            out.writeBoolean(task.isCompleted);
+            writeString(out, task.title);
+            writeString(out, task.description);
+            out.writeInt(task.priority);
+            out.writeLong(createdBy == null ? -1 : createdBy);
+            out.writeLong(task.deadlineMS);
+            out.writeLong(task.dateCreatedMS);
+            out.writeLong(task.masterTaskId);
+            writeLongs(out, task.assignedEmployees);
+            writeLongs(out, task.boards);
+        }
+
+        @Override
+        public RawTask read(DataInputStream in) throws IOException {
+            long taskId = in.readLong();
+            boolean isCompleted = in.readBoolean();
+            String title = readString(in);
+            String description = readString(in);
+            int priority = in.readInt();
+            long createdBy = in.readLong();
+            long deadlineMS = in.readLong();
+            long dateCreatedMS = in.readLong();
+            long masterTaskId = in.readLong();
+            long[] assignedEmployees = readLongs(in);
+            long[] boards = readLongs(in);
+
+            return new RawTask(taskId, isCompleted, title, description, priority, createdBy,
+                    deadlineMS, dateCreatedMS, masterTaskId, assignedEmployees, boards);
+        }
+    };
+
+    /**
+     * Codec of RawUser records
+     */
+    static final RecordCodec<RawUser> USER = new RecordCodec<>() {
+        @Override
+        public void write(DataOutput out, RawUser user) throws IOException {
+            Long lastOnline = user.lastOnline;
+
+            out.writeLong(user.userId);
+            writeString(out, user.username);
+            writeBytes(out, user.passwordHash);
+            writeString(out, user.userEmail);
+            out.writeBoolean(lastOnline != null);
+            out.writeLong(lastOnline == null ? 0 : lastOnline);
+            writeLongs(out, user.projects);
+            writeInts(out, user.projectRights);
+            writeLongs(out, user.friendList);
+        }
+
+        @Override
+        public RawUser read(DataInputStream in) throws IOException {
+            long userId = in.readLong();
+            String username = readString(in);
+            byte[] passwordHash = readBytes(in);
+            String userEmail = readString(in);
+            boolean hasLastOnline = in.readBoolean();
+            long lastOnlineValue = in.readLong();
+            Long lastOnline = hasLastOnline ? lastOnlineValue : null;
+            long[] projects = readLongs(in);
+            int[] projectRights = readInts(in);
+            long[] friendList = readLongs(in);
+
+            return new RawUser(userId, username, passwordHash, userEmail, lastOnline, projects, projectRights, friendList);
+        }
+    };
+
+    /**
+     * Codec of board records, the ID of a board and its name
+     */
+    static final RecordCodec<Map.Entry<Long, String>> BOARD = new RecordCodec<>() {
+        @Override
+        public void write(DataOutput out, Map.Entry<Long, String> board) throws IOException {
+            out.writeLong(board.getKey());
+            writeString(out, board.getValue());
+        }
+
+        @Override
+        public Map.Entry<Long, String> read(DataInputStream in) throws IOException {
+            long boardId = in.readLong();
+            String name = readString(in);
+
+            return new AbstractMap.SimpleEntry<>(boardId, name);
+        }
+    };
+
+    /**
+     * Write the magic bytes and the format version
+     * @param out output
+     * @throws IOException If IO fails
+     */
+    static void writeHeader(DataOutput out) throws IOException {
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    /**
+     * Read and check the magic bytes and the format version
+     * @param in input
+     * @throws IOException If IO fails, the input is not binary or its version is unknown
+     */
+    static void readHeader(DataInput in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if(!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a binary minijira file");
+
+        byte version = in.readByte();
+        if(version != VERSION)
+            throw new IOException("Unsupported binary format version " + version);
+    }
+
+    /**
+     * Check whether an input is in the binary format, without consuming it
+     * @param in input which supports mark and reset
+     * @return true if the input starts with the magic bytes
+     * @throws IOException If IO fails
+     */
+    static boolean hasHeader(@NotNull InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        byte[] magic = in.readNBytes(MAGIC.length);
+        in.reset();
+
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Write one length-prefixed record
+     * @param out output
+     * @param codec codec of the record
+     * @param record the record
+     * @param buffer reusable buffer for encoding the record
+     * @throws IOException If IO fails
+     */
+    static <RawType> void writeRecord(DataOutputStream out, RecordCodec<RawType> codec, RawType record, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+        codec.write(new DataOutputStream(buffer), record);
+
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+
+    /**
+     * Reader of the length-prefixed records of one file. Keeps track of the
+     * offset, so a broken record is reported with its place in the file
+     * @param <RawType> type of the records
+     */
+    static class RecordReader<RawType> {
+        private final DataInputStream in;
+        private final RecordCodec<RawType> codec;
+        private final Path source;
+        private long offset;
+
+        /**
+         * Main constructor. Reads and checks the header of the file
+         * @param in input, at the start of the file
+         * @param codec codec of the records
+         * @param source the file, for the error messages
+         * @throws IOException If IO fails, the input is not binary or its version is unknown
+         */
+        RecordReader(@NotNull DataInputStream in, @NotNull RecordCodec<RawType> codec, Path source) throws IOException {
+            this.in = in;
+            this.codec = codec;
+            this.source = source;
+
+            readHeader(in);
+            offset = MAGIC.length + 1;
+        }
+
+        /**
+         * Read the next record
+         * @return the record, null at the end of the input
+         * @throws IOException If IO fails, the length of the record is impossible
+         *                     or the input ends in the middle of a record
+         */
+        RawType read() throws IOException {
+            // End of input between records
+            int first = in.read();
+            if(first == -1)
+                return null;
+
+            try{
+                int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+
+                // A corrupt prefix must not allocate a negative or huge buffer
+                if(length < 0 || length > MAX_RECORD_BYTES)
+                    throw new IOException("Broken record in " + source + " at offset " + offset + ": length " + length);
+
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+
+                RawType record = codec.read(new DataInputStream(new ByteArrayInputStream(payload)));
+                offset += 4 + length;
+                return record;
+            }catch (StreamCorruptedException e){
+                throw new IOException("Broken record in " + source + " at offset " + offset + ": " + e.getMessage(), e);
+            }catch (EOFException e){
+                throw new EOFException("Record in " + source + " at offset " + offset + " is truncated");
+            }
+        }
+    }
+
+    /**
+     * Convert a JSON container file or directory into the binary format or back.
+     * Usage: BinaryCodec {tasks|users|boards} source target {json|binary}
+     * @param args command line arguments
+     * @throws IOException If file IO fails
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length != 4){
+            System.out.println("Usage: BinaryCodec {tasks|users|boards} <source> <target> {json|binary}");
+            return;
+        }
+
+        Path source = Path.of(args[1]);
+        Path target = Path.of(args[2]);
+        StorageFormat format = StorageFormat.valueOf(args[3].toUpperCase());
+
+        switch (args[0]){
+            case "tasks":
+                TaskContainer tasks = new TaskContainer(source);
+                tasks.setStorageFormat(format);
+                tasks.saveTasks(target);
+                break;
+
+            case "users":
+                UserContainer users = new UserContainer(source);
+                users.setStorageFormat(format);
+                users.saveUsers(target);
+                break;
+
+            case "boards":
+                Boards boards = new Boards(new TaskContainer(), source);
+                boards.setStorageFormat(format);
+                boards.saveBoards(target);
+                break;
+
+            default:
+                System.out.println("Unknown container: " + args[0]);
+        }
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read the length prefix of a string or an array. The elements have to
+     * fit into what is left of the record, so a corrupt prefix can not
+     * allocate a negative or huge array
+     * @param in input, holds the rest of the record
+     * @param elementSize size of an element in bytes
+     * @return the length, -1 for null
+     * @throws IOException If IO fails or the length is impossible
+     */
+    private static int readLength(DataInputStream in, int elementSize) throws IOException {
+        int length = in.readInt();
+        if(length == -1)
+            return -1;
+
+        if(length < 0 || (long) length * elementSize > in.available())
+            throw new StreamCorruptedException("length " + length + " of an array does not fit into the record");
+
+        return length;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutput out, byte[] values) throws IOException {
+        if(values == null){
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = readLength(in, Byte.BYTES);
+        if(length == -1)
+            return null;
+
+        byte[] values = new byte[length];
+        in.readFully(values);
+        return values;
+    }
+
+    private static void writeLongs(DataOutput out, long[] values) throws IOException {
+        if(values == null){
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(values.length);
+        for(long value: values)
+            out.writeLong(value);
+    }
+
+    private static long[] readLongs(DataInputStream in) throws IOException {
+        int length = readLength(in, Long.BYTES);
+        if(length == -1)
+            return null;
+
+        long[] values = new long[length];
+        for(int i = 0; i < length; i++)
+            values[i] = in.readLong();
+        return values;
+    }
+
+    private static void writeInts(DataOutput out, int[] values) throws IOException {
+        if(values == null){
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(values.length);
+        for(int value: values)
+            out.writeInt(value);
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int length = readLength(in, Integer.BYTES);
+        if(length == -1)
+            return null;
+
+        int[] values = new int[length];
+        for(int i = 0; i < length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+}
@@ -0,0 +1,24 @@
+package common;
+
+/**
+ * Request to start or stop receiving the changes of the tasks of a board
+ * as they happen. The fields are public, so it can be sent over the
+ * network as JSON like the Raw classes.
+ */
+public class BoardSubscription {
+    public TaskRequest.Op op = TaskRequest.Op.SUBSCRIBE;
+    public long boardId;
+
+    // True to subscribe, false to unsubscribe
+    public boolean subscribed;
+
+    /**
+     * Main constructor
+     * @param boardId ID of the board
+     * @param subscribed true to subscribe, false to unsubscribe
+     */
+    public BoardSubscription(long boardId, boolean subscribed){
+        this.boardId = boardId;
+        this.subscribed = subscribed;
+    }
+}
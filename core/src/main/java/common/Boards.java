@@ -4,13 +4,13 @@ import data.RawProject;
 import data.RawProjectNameList;
 import data.RawTask;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -19,6 +19,7 @@ public class Boards {
     private final Map<Long, String> boardNames = new HashMap<>();
     private final TaskContainer tasks;
     private String boardpath;
+    private StorageFormat format = StorageFormat.JSON;
 
     /**
      * Main constructor. Initializes the TaskContainer
@@ -79,8 +80,19 @@ public class Boards {
             Files.createFile(Paths.get(path));
 
         // Check if file exists and
-        // if the File object points at file
-        if(file.isFile()){
+        // if the File object points at binary file
+        if(file.isFile() && isBinary(file.toPath())){
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))){
+                BinaryCodec.RecordReader<Map.Entry<Long, String>> records = new BinaryCodec.RecordReader<>(in, BinaryCodec.BOARD, file.toPath());
+
+                Map.Entry<Long, String> board;
+                while((board = records.read()) != null)
+                    boardNames.put(board.getKey(), board.getValue());
+            }
+        }
+
+        // If the File object points at .csv file
+        else if(file.isFile()){
             List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
 
             for(String line: lines) {
@@ -106,16 +118,58 @@ public class Boards {
         importBoards(path.toString());
     }
 
+    /**
+     * Check whether a board file is in the binary format
+     * @param path path to the file
+     * @return true if the file is binary
+     * @throws IOException If file IO fails
+     */
+    private static boolean isBinary(Path path) throws IOException {
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(path))){
+            return BinaryCodec.hasHeader(in);
+        }
+    }
+
+    /**
+     * Set the format in which the boards are saved. The format of the
+     * imported file is detected, so it is converted on the next save
+     * @param format new storage format
+     */
+    public synchronized void setStorageFormat(StorageFormat format){
+        this.format = format;
+    }
+
     /**
      * Method for saving board names to the file whence they were imported
      * @throws IOException If file IO fails
      */
-    public void saveBoards() throws IOException {
+    public synchronized void saveBoards() throws IOException {
+        saveBoards(Paths.get(boardpath));
+    }
+
+    /**
+     * Method for saving board names to a file, as .csv or in the binary
+     * format depending on the storage format
+     * @param path path to the file
+     * @throws IOException If file IO fails
+     */
+    public synchronized void saveBoards(Path path) throws IOException {
+        if(format == StorageFormat.BINARY){
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))){
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                BinaryCodec.writeHeader(out);
+
+                for(Map.Entry<Long, String> board: boardNames.entrySet())
+                    BinaryCodec.writeRecord(out, BinaryCodec.BOARD, board, buffer);
+            }
+            return;
+        }
+
         // StringBuilder object for building the contets of the CSV file
         StringBuilder builder = new StringBuilder();
 
         // Object of the file
-        File file = new File(boardpath);
+        File file = path.toFile();
 
         // Build the contents of the file
         for(long boardID: boardNames.keySet()){
@@ -137,7 +191,7 @@ public class Boards {
      * @param id ID of the board
      * @param name name of the board
      */
-    public void registerBoard(long id, String name){
+    public synchronized void registerBoard(long id, String name){
         boardNames.put(id, name);
     }
 
@@ -145,7 +199,7 @@ public class Boards {
      * Save the board ID and name. Can also be used for renaming boards
      * @param boards directory of board IDs and board Names
      */
-    public void registerBoard(Map<Long, String> boards){
+    public synchronized void registerBoard(Map<Long, String> boards){
         for(long boardID: boards.keySet())
             boardNames.put(boardID, boards.get(boardID));
     }
@@ -154,7 +208,7 @@ public class Boards {
      * Save the board ID and name. Can also be used for renaming boards
      * @param projectNames RawProjectNameList object
      */
-    public void registerBoard(RawProjectNameList projectNames){
+    public synchronized void registerBoard(RawProjectNameList projectNames){
         for(int i = 0; i < projectNames.projectIds.length; i++){
             boardNames.put(projectNames.projectIds[i], projectNames.projectNames[i]);
         }
@@ -165,7 +219,7 @@ public class Boards {
      * This variant also updates all the tasks referenced in RawProject object
      * @param project RawProject object
      */
-    public void registerBoard(RawProject project){
+    public synchronized void registerBoard(RawProject project){
         // Register the board
         boardNames.put(project.projectId, project.projectName);
 
@@ -179,7 +233,7 @@ public class Boards {
      * Remove the board from existence
      * @param id id of the board to be removed
      */
-    public void removeBoard(long id){
+    public synchronized void removeBoard(long id){
         // Remove from map
         boardNames.remove(id);
 
@@ -196,7 +250,7 @@ public class Boards {
      * @param id ID of the board which' name is needed
      * @return name of the board which' ID was given
      */
-    public String getBoardName(long id){
+    public synchronized String getBoardName(long id){
         return boardNames.get(id);
     }
 
@@ -204,7 +258,7 @@ public class Boards {
      * Method for constructing RawProjectNameList object from this class
      * @return RawProjectNameList object
      */
-    public RawProjectNameList getRawProjectNameList(){
+    public synchronized RawProjectNameList getRawProjectNameList(){
         int listLength = boardNames.size();
         RawProjectNameList out = new RawProjectNameList(new String[listLength], new long[listLength]);
         int index = 0;
@@ -222,20 +276,14 @@ public class Boards {
      * @param id ID of the project which will be converted to RawProject
      * @return RawProject object
      */
-    public RawProject getRawProject(long id){
-        // Get the list of tasks in board
-        List<Task> boardTasks = tasks.getTasks(id);
-
-        // Fill the array of tasks
-        RawTask[] rawTasks = new RawTask[boardTasks.size()];
-        for(int i = 0; i < boardTasks.size(); i++){
-            rawTasks[i] = boardTasks.get(i).getRawTask();
-        }
+    public synchronized RawProject getRawProject(long id){
+        // Frozen copies of the tasks in board
+        RawTask[] rawTasks = tasks.getRawTasks(id).toArray(new RawTask[0]);
 
         return new RawProject(id, rawTasks, boardNames.get(id), "");
     }
 
-    public Set<Long> getIDSet(){
-        return boardNames.keySet();
+    public synchronized Set<Long> getIDSet(){
+        return new HashSet<>(boardNames.keySet());
     }
 }
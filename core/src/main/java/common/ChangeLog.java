@@ -0,0 +1,117 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded log of the changes of the tasks. Every change gets the next
+ * number of a sequence, which is also the version of the changed task.
+ * The oldest changes are dropped when the log is full, after that the
+ * changes since an older number can not be told anymore.
+ */
+class ChangeLog {
+    private final long[] sequences;
+    private final long[] ids;
+    private final boolean[] removals;
+    private int start = 0;
+    private int size = 0;
+
+    // Last number given out
+    private long sequence;
+
+    // All the changes after this number are in the log
+    private long floor;
+
+    /**
+     * Main constructor
+     * @param capacity number of changes kept
+     * @param sequence number the sequence starts after
+     */
+    ChangeLog(int capacity, long sequence){
+        this.sequences = new long[capacity];
+        this.ids = new long[capacity];
+        this.removals = new boolean[capacity];
+        this.sequence = sequence;
+        this.floor = sequence;
+    }
+
+    /**
+     * Give a change the next number of the sequence and log it
+     * @param id ID of the changed task
+     * @param removed true if the task was removed
+     * @return number of the change
+     */
+    synchronized long record(long id, boolean removed){
+        if(size == sequences.length){
+            floor = sequences[start];
+            start = (start + 1) % sequences.length;
+            size--;
+        }
+
+        int end = (start + size) % sequences.length;
+        sequences[end] = ++sequence;
+        ids[end] = id;
+        removals[end] = removed;
+        size++;
+
+        return sequence;
+    }
+
+    /**
+     * Get the number of the last change
+     * @return the number
+     */
+    synchronized long current(){
+        return sequence;
+    }
+
+    /**
+     * Get the tasks which have changed since a number. A task which has
+     * changed many times is only listed once, by its last change
+     * @param since number of the last change which the caller has seen
+     * @return the changes, null if some of them have been dropped or the number is not from this sequence
+     */
+    synchronized TaskChanges since(long since){
+        if(since < floor || since > sequence)
+            return null;
+
+        // The numbers grow along the log, find the first one after since
+        int low = 0;
+        int high = size;
+        while(low < high){
+            int middle = (low + high) >>> 1;
+            if(sequences[(start + middle) % sequences.length] <= since)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        // Last change of every task
+        LongMap<Boolean> last = new LongMap<>();
+        List<Long> order = new ArrayList<>();
+        for(int i = low; i < size; i++){
+            int slot = (start + i) % sequences.length;
+            if(last.put(ids[slot], removals[slot]) == null)
+                order.add(ids[slot]);
+        }
+
+        int changedCount = 0;
+        for(long id: order){
+            if(!last.get(id))
+                changedCount++;
+        }
+
+        long[] changed = new long[changedCount];
+        long[] removed = new long[order.size() - changedCount];
+        int c = 0;
+        int r = 0;
+        for(long id: order){
+            if(last.get(id))
+                removed[r++] = id;
+            else
+                changed[c++] = id;
+        }
+
+        return new TaskChanges(sequence, changed, removed);
+    }
+}
@@ -1,85 +1,392 @@
 package common;
 
-import java.io.IOException;
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Stores the items of a container as JSON or in the binary format of
+ * BinaryCodec. A directory holds one file per item, a file holds one item
+ * per line (JSONL) or one record per item. Files are streamed, so only the
+ * items themselves and a bounded amount of text are in memory. The format
+ * of a file is detected when it is read, the format of new files is set
+ * with setFormat().
+ * @param <ContainerType> type of the items
+ * @param <RawType> type of the JSON form of the items
+ */
+class ContainerHelper<ContainerType, RawType> {
+    // Number of files or lines which one import task handles without splitting
+    private static final int IMPORT_BATCH = 1024;
+
+    // Number of lines of a file which are read into memory at once
+    private static final int LINE_BATCH = 16 * IMPORT_BATCH;
 
-class ContainerHelper<ContainerType> {
-    private final List<ContainerType> container;
+    private static final Gson gson = new Gson();
+    private final Supplier<Collection<ContainerType>> contents;
+    private final Consumer<ContainerType> sink;
+    private final Class<RawType> rawType;
+    private final Converter<RawType, ContainerType> fromRaw;
+    private final Converter<ContainerType, RawType> toRaw;
+    private final Converter<ContainerType, String> toJson;
+    private final Converter<ContainerType, Long> identifier;
+    private final BinaryCodec.RecordCodec<RawType> codec;
+    private StorageFormat format = StorageFormat.JSON;
+
+    // Changes since the last export, by ID. Marked by concurrent writers
+    private final Map<Long, ContainerType> dirty = new ConcurrentHashMap<>();
+    private final Set<Long> removed = ConcurrentHashMap.newKeySet();
+    private final Set<Path> stale = new HashSet<>();
+    private Path lastExport;
 
     /**
-     * Primary constructor. Initializes the container field
-     * @param container List object of type ContainerType
+     * Primary constructor. Initializes the callbacks which give the items
+     * of the container and take the imported items
+     * @param contents callback which gives all the items of the container
+     * @param sink callback which adds an imported item into the container
+     * @param rawType class of the JSON form of the items
+     * @param fromRaw callback which converts the JSON form into ContainerType
+     * @param toRaw callback which converts ContainerType into the JSON form
+     * @param identifier callback which gives the ID of an item. In directory mode every item is stored in a file named by its ID
+     * @param codec binary encoder and decoder of the raw form
      */
-    ContainerHelper(List<ContainerType> container){
-        this.container = container;
+    ContainerHelper(Supplier<Collection<ContainerType>> contents, Consumer<ContainerType> sink, Class<RawType> rawType, Converter<RawType, ContainerType> fromRaw,
+                    Converter<ContainerType, RawType> toRaw, Converter<ContainerType, Long> identifier,
+                    BinaryCodec.RecordCodec<RawType> codec){
+        this(contents, sink, rawType, fromRaw, toRaw, null, identifier, codec);
     }
 
     /**
-     * Method for importing items from files
+     * Constructor for items which cache their own JSON form
+     * @param contents callback which gives all the items of the container
+     * @param sink callback which adds an imported item into the container
+     * @param rawType class of the JSON form of the items
+     * @param fromRaw callback which converts the JSON form into ContainerType
+     * @param toRaw callback which converts ContainerType into the JSON form
+     * @param toJson callback which gives the JSON text of an item, null to encode the raw form
+     * @param identifier callback which gives the ID of an item. In directory mode every item is stored in a file named by its ID
+     * @param codec binary encoder and decoder of the raw form
+     */
+    ContainerHelper(Supplier<Collection<ContainerType>> contents, Consumer<ContainerType> sink, Class<RawType> rawType, Converter<RawType, ContainerType> fromRaw,
+                    Converter<ContainerType, RawType> toRaw, Converter<ContainerType, String> toJson, Converter<ContainerType, Long> identifier,
+                    BinaryCodec.RecordCodec<RawType> codec){
+        this.contents = contents;
+        this.sink = sink;
+        this.rawType = rawType;
+        this.fromRaw = fromRaw;
+        this.toRaw = toRaw;
+        this.toJson = toJson != null ? toJson : item -> gson.toJson(toRaw.convert(item), rawType);
+        this.identifier = identifier;
+        this.codec = codec;
+    }
+
+    /**
+     * Set the format in which the items are exported. Everything is
+     * written on the next export, so the files are converted
+     * @param format new storage format
+     */
+    void setFormat(StorageFormat format){
+        if(this.format != format)
+            lastExport = null;
+
+        this.format = format;
+    }
+
+    /**
+     * Read one item from a stream in either format
+     * @param in input which supports mark and reset
+     * @param source the file, for the error messages
+     * @return raw form of the item
+     * @throws IOException If IO fails
+     */
+    private RawType readItem(InputStream in, Path source) throws IOException {
+        if(BinaryCodec.hasHeader(in))
+            return new BinaryCodec.RecordReader<>(new DataInputStream(in), codec, source).read();
+
+        return gson.fromJson(new InputStreamReader(in, StandardCharsets.UTF_8), rawType);
+    }
+
+    /**
+     * Mark an item as added or changed, it is written on next export
+     * @param item changed item
+     */
+    void markDirty(ContainerType item){
+        long id = identifier.convert(item);
+        dirty.put(id, item);
+        removed.remove(id);
+    }
+
+    /**
+     * Mark an item as removed, its file is deleted on next export
+     * @param item removed item
+     */
+    void markRemoved(ContainerType item){
+        long id = identifier.convert(item);
+        dirty.remove(id);
+        removed.add(id);
+    }
+
+    /**
+     * Item read from a file, along with where it came from
+     */
+    private static class Imported<ContainerType> {
+        final ContainerType item;
+        final long id;
+        final Path path;
+        final FileTime modified;
+
+        Imported(ContainerType item, long id, Path path, FileTime modified){
+            this.item = item;
+            this.id = id;
+            this.path = path;
+            this.modified = modified;
+        }
+    }
+
+    /**
+     * Fork-join task which reads and converts a range of files, or a range
+     * of lines of one file. Ranges larger than IMPORT_BATCH are split in two
+     * and handled in parallel. The results keep the order of the sources.
+     */
+    private class ImportTask extends RecursiveTask<List<Imported<ContainerType>>> {
+        private final List<Path> files;
+        private final List<String> lines;
+        private final int from;
+        private final int to;
+
+        ImportTask(List<Path> files, List<String> lines, int from, int to){
+            this.files = files;
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Imported<ContainerType>> compute() {
+            // Split the range
+            if(to - from > IMPORT_BATCH){
+                int middle = (from + to) >>> 1;
+                ImportTask left = new ImportTask(files, lines, from, middle);
+                ImportTask right = new ImportTask(files, lines, middle, to);
+                left.fork();
+
+                List<Imported<ContainerType>> rightResult = right.compute();
+                List<Imported<ContainerType>> result = left.join();
+                result.addAll(rightResult);
+                return result;
+            }
+
+            // Convert the range
+            List<Imported<ContainerType>> result = new ArrayList<>(to - from);
+            try{
+                for(int i = from; i < to; i++){
+                    if(files != null){
+                        Path p = files.get(i);
+                        ContainerType item;
+                        try(InputStream in = new BufferedInputStream(Files.newInputStream(p))){
+                            item = fromRaw.convert(readItem(in, p));
+                        }
+                        result.add(new Imported<>(item, identifier.convert(item), p, Files.getLastModifiedTime(p)));
+                    }else if(!lines.get(i).isBlank()){
+                        result.add(new Imported<>(fromRaw.convert(gson.fromJson(lines.get(i), rawType)), 0, null, null));
+                    }
+                }
+            }catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Read and convert the files or lines in parallel
+     * @param files files to be read, null if lines are given
+     * @param lines lines to be converted, null if files are given
+     * @return items in the order of the sources
+     * @throws IOException If file IO fails
+     */
+    private List<Imported<ContainerType>> importParallel(List<Path> files, List<String> lines) throws IOException {
+        int size = files != null ? files.size() : lines.size();
+
+        try{
+            return ForkJoinPool.commonPool().invoke(new ImportTask(files, lines, 0, size));
+        }catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Method for importing items from files. Files are read and converted
+     * in parallel on the common fork-join pool
      * @param path path to a file/directory whence items are imported
-     * @param converterJSONToItem callback which converts a JSON String to ContainerType
      * @throws IOException If file IO fails
      */
-    void importItems(Path path, Converter<String, ContainerType> converterJSONToItem) throws IOException {
+    void importItems(Path path) throws IOException {
         // Check if file exists
         if(!Files.exists(path))
             Files.createFile(path);
 
         // If the File object points at directory
         if (Files.isDirectory(path)){
-            try (var files = Files.walk(path)){
-                files.filter(Files::isRegularFile).forEach((p) -> {
-                    try {
-                        container.add(converterJSONToItem.convert(Files.readString(p)));
-                    }catch (IOException e){
-                        throw new RuntimeException(e);
-                    }
-                });
+            // Newest file of every ID, older copies are left over from earlier versions
+            Map<Long, ContainerType> items = new LinkedHashMap<>();
+            Map<Long, FileTime> modified = new HashMap<>();
+            Map<Long, Path> sources = new HashMap<>();
+            Set<Path> misnamed = new HashSet<>();
+
+            List<Path> files;
+            try (var walk = Files.walk(path)){
+                files = new ArrayList<>();
+                walk.filter(Files::isRegularFile).forEach(files::add);
+            }
+
+            for(Imported<ContainerType> imported: importParallel(files, null)){
+                if(!imported.path.equals(path.resolve(String.valueOf(imported.id))))
+                    misnamed.add(imported.path);
+
+                if(!items.containsKey(imported.id) || modified.get(imported.id).compareTo(imported.modified) < 0){
+                    items.put(imported.id, imported.item);
+                    modified.put(imported.id, imported.modified);
+                    sources.put(imported.id, imported.path);
+                }
+            }
+
+            items.values().forEach(sink);
+
+            // Files which are not named by the ID are deleted on next export,
+            // items which were read from such files are written under their ID
+            stale.addAll(misnamed);
+            for(Map.Entry<Long, Path> source: sources.entrySet()){
+                if(misnamed.contains(source.getValue()))
+                    dirty.put(source.getKey(), items.get(source.getKey()));
             }
+
+            lastExport = path;
         }
 
         // If the File object points at file
         else if(Files.isRegularFile(path)){
-            List<String> lines = Files.readAllLines(path);
-            for(String line: lines){
-                if(!line.isBlank())
-                    container.add(converterJSONToItem.convert(line));
+            // Closing the stream closes the channel too, also when the probe fails
+            try(InputStream in = new BufferedInputStream(Channels.newInputStream(FileChannel.open(path)))){
+                // Binary records are cheap to decode, read them in order
+                if(BinaryCodec.hasHeader(in)){
+                    BinaryCodec.RecordReader<RawType> records = new BinaryCodec.RecordReader<>(new DataInputStream(in), codec, path);
+
+                    RawType raw;
+                    while((raw = records.read()) != null)
+                        sink.accept(fromRaw.convert(raw));
+                    return;
+                }
+
+                // Read the lines in bounded batches
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                List<String> lines = new ArrayList<>(LINE_BATCH);
+                String line;
+
+                do{
+                    line = reader.readLine();
+                    if(line != null)
+                        lines.add(line);
+
+                    if(lines.size() == LINE_BATCH || (line == null && !lines.isEmpty())){
+                        for(Imported<ContainerType> imported: importParallel(null, lines))
+                            sink.accept(imported.item);
+                        lines.clear();
+                    }
+                }while(line != null);
             }
         }
     }
 
     /**
-     * Method for exporting items to files in JSON format
+     * Method for exporting items to files in the storage format. In directory mode
+     * only the items which have changed since the last export into the same
+     * directory are written, and the files of removed items are deleted.
      * @param path path to the save file/directory where the items are exported
-     * @param converterItemToJSON callback which converts ContainerType into JSON String
      * @throws IOException If file IO fails
      */
-    void exportItems(Path path, Converter<ContainerType, String> converterItemToJSON) throws IOException {
+    void exportItems(Path path) throws IOException {
         // Check if file exists
         if(!Files.exists(path))
             Files.createFile(path);
 
         // If the File object points at directory
         if(Files.isDirectory(path)){
-            for (ContainerType item: container) {
-                Files.writeString(
-                        path.resolve(String.valueOf(item.hashCode())),
-                        converterItemToJSON.convert(item)
-                );
+            // Everything has to be written into a new directory
+            Collection<ContainerType> changed = path.equals(lastExport) ? dirty.values() : contents.get();
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            for (ContainerType item: changed) {
+                Path p = path.resolve(String.valueOf(identifier.convert(item)));
+
+                if(format == StorageFormat.BINARY){
+                    try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(p)))){
+                        BinaryCodec.writeHeader(out);
+                        BinaryCodec.writeRecord(out, codec, toRaw.convert(item), buffer);
+                    }
+                }else{
+                    try(Writer writer = Files.newBufferedWriter(p)){
+                        writer.write(toJson.convert(item));
+                    }
+                }
+            }
+
+            if(path.equals(lastExport)){
+                for(long id: removed)
+                    Files.deleteIfExists(path.resolve(String.valueOf(id)));
+
+                for(Path p: stale)
+                    Files.deleteIfExists(p);
             }
         }
 
         // If the File object points at file
-        else if(Files.isRegularFile(path)){
-            StringBuilder builder = new StringBuilder();
-            for(ContainerType item: container){
-                builder.append(converterItemToJSON.convert(item));
-                builder.append("\n");
+        else if(Files.isRegularFile(path) && format == StorageFormat.BINARY){
+            // Stream the items, one record each
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+                    FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+            )))){
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                BinaryCodec.writeHeader(out);
+
+                for(ContainerType item: contents.get())
+                    BinaryCodec.writeRecord(out, codec, toRaw.convert(item), buffer);
             }
+        }
 
-            Files.writeString(path, builder.toString());
+        else if(Files.isRegularFile(path)){
+            // Stream the items, one per line
+            try(
+                    Writer writer = new BufferedWriter(Channels.newWriter(
+                            FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                            StandardCharsets.UTF_8
+                    ))
+            ){
+                for(ContainerType item: contents.get()){
+                    writer.write(toJson.convert(item));
+                    writer.write('\n');
+                }
+            }
         }
+
+        // The next export into the same place only needs the changes
+        dirty.clear();
+        removed.clear();
+        stale.clear();
+        lastExport = path;
     }
 }
@@ -0,0 +1,24 @@
+package common;
+
+/**
+ * Enum of the policies of forcing journal writes to the disk
+ */
+public enum FsyncPolicy {
+    /**
+     * Every change is forced to the disk before it is acknowledged. Changes
+     * which arrive at the same time share one write and one fsync
+     */
+    ALWAYS,
+
+    /**
+     * Changes are forced to the disk at a fixed interval. A crash can lose
+     * the changes of the last interval
+     */
+    INTERVAL,
+
+    /**
+     * Changes are handed to the operating system, which decides when they
+     * reach the disk
+     */
+    OS
+}
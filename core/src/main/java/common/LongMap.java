@@ -0,0 +1,190 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash map from primitive long keys to values. Keys are stored in a plain
+ * long array with open addressing and linear probing, so lookups do not
+ * box the key into a Long. Values can not be null, a null value marks an
+ * empty slot.
+ * @param <V> type of the values
+ */
+class LongMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private int size = 0;
+    private int mask;
+
+    /**
+     * Main constructor. Creates an empty map
+     */
+    LongMap(){
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    /**
+     * Spread the bits of the key, so that sequential IDs do not cluster
+     * @param key the key
+     * @return slot of the key in an empty table
+     */
+    private int slot(long key){
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    /**
+     * Get the value of a key
+     * @param key the key
+     * @return the value, null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key){
+        for(int i = slot(key); values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key)
+                return (V) values[i];
+        }
+
+        return null;
+    }
+
+    /**
+     * Check whether the map has a key
+     * @param key the key
+     * @return true if the key is in the map
+     */
+    boolean containsKey(long key){
+        return get(key) != null;
+    }
+
+    /**
+     * Set the value of a key
+     * @param key the key
+     * @param value the new value, not null
+     * @return the previous value, null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value){
+        if(value == null)
+            throw new IllegalArgumentException("LongMap can not hold null values");
+
+        int i = slot(key);
+        for(; values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key){
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        size++;
+
+        // Keep the table at most half full
+        if(size * 2 > keys.length)
+            resize(keys.length * 2);
+
+        return null;
+    }
+
+    /**
+     * Remove a key from the map
+     * @param key the key
+     * @return the removed value, null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key){
+        int i = slot(key);
+        for(; values[i] != null; i = (i + 1) & mask){
+            if(keys[i] == key)
+                break;
+        }
+
+        if(values[i] == null)
+            return null;
+
+        V removed = (V) values[i];
+        values[i] = null;
+        size--;
+
+        // Move the following entries of the run back, so that no lookup stops at the hole
+        for(int hole = i, j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask){
+            int home = slot(keys[j]);
+
+            // Entry can move if its home slot is not between the hole and its current slot
+            if(((j - home) & mask) >= ((j - hole) & mask)){
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                values[j] = null;
+                hole = j;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Get the number of keys in the map
+     * @return number of keys
+     */
+    int size(){
+        return size;
+    }
+
+    /**
+     * Get the values of the map, in no particular order
+     * @return list of the values
+     */
+    @SuppressWarnings("unchecked")
+    List<V> values(){
+        List<V> out = new ArrayList<>(size);
+        for(Object value: values){
+            if(value != null)
+                out.add((V) value);
+        }
+
+        return out;
+    }
+
+    /**
+     * Check whether the map is empty
+     * @return true if the map has no keys
+     */
+    boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Remove all the keys
+     */
+    void clear(){
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Grow the table and insert the entries again
+     * @param capacity new capacity, a power of two
+     */
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity){
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        size = 0;
+
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldValues[i] != null)
+                put(oldKeys[i], (V) oldValues[i]);
+        }
+    }
+}
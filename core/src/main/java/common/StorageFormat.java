@@ -0,0 +1,17 @@
+package common;
+
+/**
+ * Enum of the formats in which containers are saved on the disk.
+ * The format of existing files is detected when they are imported
+ */
+public enum StorageFormat {
+    /**
+     * Human readable JSON, one item per line or per file. Boards are saved as CSV
+     */
+    JSON,
+
+    /**
+     * Compact binary records, see BinaryCodec
+     */
+    BINARY
+}
@@ -0,0 +1,24 @@
+package common;
+
+/**
+ * Request for the subtasks of a task, the direct ones or all of them at
+ * any depth. The fields are public, so it can be sent over the network as
+ * JSON like the Raw classes.
+ */
+public class SubtaskRequest {
+    public TaskRequest.Op op = TaskRequest.Op.SUBTASKS;
+    public long taskId;
+
+    // True for the subtasks at any depth, false for the direct ones
+    public boolean subtree;
+
+    /**
+     * Main constructor
+     * @param taskId ID of the master task
+     * @param subtree true for the subtasks at any depth, false for the direct ones
+     */
+    public SubtaskRequest(long taskId, boolean subtree){
+        this.taskId = taskId;
+        this.subtree = subtree;
+    }
+}
@@ -1,5 +1,6 @@
 package common;
 
+import com.google.gson.Gson;
 import data.RawTask;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
@@ -12,23 +13,62 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.BooleanSupplier;
 
 /**
  * Class which defines the task
  */
 public class Task {
-    private final Map<Git, Set<String>> gitMap;
+    // Master task ID of a task which is not a subtask. Tasks were stored
+    // with 0 before subtasks were indexed, so task 0 can not be a master task
+    public static final long NO_MASTER_TASK = 0;
+
+    private static final long[] NONE = new long[0];
+    private static final Gson gson = new Gson();
+    private static final AtomicIntegerFieldUpdater<Task> CHANGES = AtomicIntegerFieldUpdater.newUpdater(Task.class, "changes");
+
+    // Created when it is first used, most tasks have no git branches
+    private Map<Git, Set<String>> gitMap;
     private final long taskId;
     private boolean isCompleted = false;
     private String title;
     private String description;
     private int priority;
-    private final User createdBy;
+    private final long createdBy;
     private long deadlineMS;
     private final long dateCreatedMS;
-    private long masterTaskId;
-    private final Set<User> assignedEmployees = new HashSet<>();
-    private final Set<Long> boards = new HashSet<>();
+    private long masterTaskId = NO_MASTER_TASK;
+
+    // IDs of the assignees and the boards. The arrays are replaced on every
+    // change instead of being modified, so they can be read without a lock
+    private long[] assignees = NONE;
+    private long[] boards = NONE;
+
+    // Container which indexes this task by its boards and fields
+    TaskContainer container;
+
+    // Stamped by the container on every change
+    private volatile long version = 0;
+
+    // Counts the changes of the fields. The wire form is only valid for the
+    // count it was built at
+    private volatile int changes = 0;
+    private volatile Wire wire;
+
+    /**
+     * RawTask and JSON form of the task between two changes
+     */
+    private static class Wire {
+        final int changes;
+        final RawTask raw;
+        volatile String json;
+
+        Wire(int changes, RawTask raw){
+            this.changes = changes;
+            this.raw = raw;
+        }
+    }
 
     /**
      * Main constructor. Creates a task with given name and ID
@@ -38,9 +78,8 @@ public class Task {
     public Task(long id, String name){
         this.title = name;
         dateCreatedMS = System.currentTimeMillis();
-        gitMap = new HashMap<>();
         this.taskId = id;
-        createdBy = null;
+        createdBy = -1;
     }
 
     /**
@@ -59,18 +98,14 @@ public class Task {
 
         this.taskId = id;
 
-        boards.add(board);
+        boards = new long[]{board};
 
-        createdBy = author;
+        createdBy = author != null ? author.getId() : -1;
         this.priority = priority;
 
         // Time
         dateCreatedMS = System.currentTimeMillis();
         deadlineMS = deadline;
-
-        // GitHub integration
-        gitMap = new HashMap<>();
-
     }
 
     /**
@@ -78,11 +113,8 @@ public class Task {
      * @param source RawTask object
      */
     public Task(RawTask source){
-        // GitHub integration
-        gitMap = new HashMap<>();
-
         if(source != null) {
-            createdBy = new User("temp", source.createdBy, new byte[]{}, new byte[]{});
+            createdBy = source.createdBy;
             dateCreatedMS = source.dateCreatedMS;
             deadlineMS = source.deadlineMS;
             description = source.description;
@@ -92,68 +124,265 @@ public class Task {
             taskId = source.taskId;
             priority = source.priority;
 
-            for (Long id : source.assignedEmployees) {
-                assignedEmployees.add(new User("temp", id, new byte[]{}, new byte[]{}));
-            }
-
-            for (Long board : source.boards) {
-                boards.add(board);
-            }
+            assignees = distinct(source.assignedEmployees);
+            boards = distinct(source.boards);
         }else{
             dateCreatedMS = -1;
             taskId = -1;
-            createdBy = null;
+            createdBy = -1;
         }
     }
 
     /**
-     * Method for converting the Task object into RawTask
-     * @return RawTask object
+     * Get the wire form of the task, building it if the task has changed
+     * since it was last built
+     * @return the wire form
      */
-    public RawTask getRawTask(){
-        RawTask out = new RawTask(
+    private Wire wire(){
+        Wire current = wire;
+        int seen = changes;
+        if(current != null && current.changes == seen)
+            return current;
+
+        // A change which happens meanwhile increments the count after
+        // the fields are written, so a torn copy is never reused
+        current = new Wire(seen, new RawTask(
                 taskId,
                 isCompleted,
                 title,
                 description,
-                priority, -1L,
+                priority, createdBy,
                 deadlineMS,
                 dateCreatedMS,
                 masterTaskId,
-                new long[]{-1L},
-                new long[]{-1L});
+                assignees.clone(),
+                // Size has to be at least 1
+                boards.length == 0 ? new long[]{-1} : boards.clone()));
+
+        wire = current;
+        return current;
+    }
+
+    /**
+     * Mark the wire form as outdated. Has to be called after the fields
+     * have been changed
+     */
+    private void invalidate(){
+        CHANGES.incrementAndGet(this);
+    }
+
+    /**
+     * Method for converting the Task object into RawTask. The RawTask is
+     * shared until the task changes, so it must not be modified
+     * @return RawTask object
+     */
+    public RawTask getRawTask(){
+        return wire().raw;
+    }
+
+    /**
+     * Method for getting the task as JSON. The text is shared until the
+     * task changes
+     * @return RawTask of the task encoded as JSON
+     */
+    String getJson(){
+        Wire current = wire();
+        String json = current.json;
+        if(json == null){
+            json = gson.toJson(current.raw, RawTask.class);
+            current.json = json;
+        }
 
-        if(createdBy != null)
-            out.createdBy = createdBy.getId();
+        return json;
+    }
+
+    /**
+     * Method for completing the task
+     */
+    public void complete(){
+        setCompleted(true);
+    }
+
+    /**
+     * Change fields of the task. In a container the fields are written and
+     * the task is given its new version under the same lock, so a copy
+     * never has a change without its version
+     * @param indexes indexes which have to be updated, TaskContainer.INDEXES, ASSIGNEES, TEXT and HIERARCHY
+     * @param write writes the fields, returns false if nothing changed
+     */
+    private void change(int indexes, BooleanSupplier write){
+        BooleanSupplier invalidating = () -> {
+            if(!write.getAsBoolean())
+                return false;
+
+            invalidate();
+            return true;
+        };
+
+        TaskContainer current = container;
+        if(current != null)
+            current.taskChanged(this, indexes, invalidating);
+        else
+            invalidating.getAsBoolean();
+    }
 
-        out.assignedEmployees = new long[assignedEmployees.size()];
-        List<User> assigneeList = new ArrayList<>(assignedEmployees);
+    /**
+     * Apply a patch to the task in place. Only the fields in the patch are
+     * touched. The container is not told about the changes of the fields,
+     * except the boards, the caller updates the returned indexes
+     * @param patch the patch
+     * @return indexes which have to be updated, TaskContainer.INDEXES, ASSIGNEES, TEXT and HIERARCHY
+     */
+    int apply(@NotNull TaskPatch patch){
+        int indexes = 0;
 
-        for (int i = 0; i < out.assignedEmployees.length; i++) {
-            out.assignedEmployees[i] = assigneeList.get(i).getId();
+        if(patch.title != null && !patch.title.equals(title)){
+            title = patch.title;
+            indexes |= TaskContainer.TEXT;
         }
 
-        // Size has to be at least 1
-        if(boards.size() == 0) {
-            out.boards = new long[]{-1};
-        }else {
-            out.boards = new long[boards.size()];
+        if(patch.description != null && !patch.description.equals(description)){
+            description = patch.description;
+            indexes |= TaskContainer.TEXT;
+        }
+
+        if(patch.priority != null && patch.priority != priority){
+            priority = patch.priority;
+            indexes |= TaskContainer.INDEXES;
+        }
+
+        if(patch.deadlineMS != null && patch.deadlineMS != deadlineMS){
+            deadlineMS = patch.deadlineMS;
+            indexes |= TaskContainer.INDEXES | TaskContainer.HIERARCHY;
+        }
+
+        if(patch.isCompleted != null && patch.isCompleted != isCompleted){
+            isCompleted = patch.isCompleted;
+            indexes |= TaskContainer.INDEXES | TaskContainer.HIERARCHY;
+        }
+
+        if(patch.masterTaskId != null && patch.masterTaskId != masterTaskId){
+            masterTaskId = patch.masterTaskId;
+            indexes |= TaskContainer.HIERARCHY;
+        }
+
+        if(patch.removeAssignees != null){
+            for(long id: patch.removeAssignees){
+                if(contains(assignees, id)){
+                    assignees = without(assignees, id);
+                    indexes |= TaskContainer.ASSIGNEES;
+                }
+            }
+        }
+
+        if(patch.addAssignees != null){
+            for(long id: patch.addAssignees){
+                if(!contains(assignees, id)){
+                    assignees = with(assignees, id);
+                    indexes |= TaskContainer.ASSIGNEES;
+                }
+            }
+        }
+
+        if(patch.removeBoards != null){
+            for(long board: patch.removeBoards)
+                removeBoard(board, false);
+        }
+
+        if(patch.addBoards != null){
+            for(long board: patch.addBoards)
+                addBoard(board, false);
+        }
+
+        if(indexes != 0)
+            invalidate();
+
+        return indexes;
+    }
+
+    /**
+     * Check whether an array has a value
+     * @param array the array
+     * @param value the value
+     * @return true if the value is in the array
+     */
+    private static boolean contains(long[] array, long value){
+        for(long element: array){
+            if(element == value)
+                return true;
         }
 
-        List<Long> boardList = new ArrayList<>(boards);
+        return false;
+    }
+
+    /**
+     * Copy an array with a value added to the end
+     * @param array the array
+     * @param value the value
+     * @return the new array
+     */
+    private static long[] with(long[] array, long value){
+        long[] out = Arrays.copyOf(array, array.length + 1);
+        out[array.length] = value;
+        return out;
+    }
 
-        for (int i = 0; i < boardList.size(); i++) {
-            out.boards[i] = boardList.get(i);
+    /**
+     * Copy an array without a value
+     * @param array the array
+     * @param value the value
+     * @return the new array
+     */
+    private static long[] without(long[] array, long value){
+        long[] out = new long[array.length - 1];
+        int i = 0;
+        for(long element: array){
+            if(element != value)
+                out[i++] = element;
         }
 
         return out;
     }
 
     /**
-     * Method for completing the task
+     * Copy an array without the repeated values
+     * @param array the array, may be null
+     * @return the new array
      */
-    public void complete(){
-        isCompleted = true;
+    private static long[] distinct(long[] array){
+        if(array == null || array.length == 0)
+            return NONE;
+
+        long[] out = new long[array.length];
+        int size = 0;
+        for(long element: array){
+            int i = 0;
+            while(i < size && out[i] != element)
+                i++;
+
+            if(i == size)
+                out[size++] = element;
+        }
+
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+
+    /**
+     * Method for checking whether the task is assigned to a user
+     * @param userId ID of the user
+     * @return true if the user is an assignee
+     */
+    public boolean isAssignedTo(long userId){
+        return contains(assignees, userId);
+    }
+
+    /**
+     * Method for checking whether the task is in a board
+     * @param board ID of the board
+     * @return true if the task belongs to the board
+     */
+    public boolean isInBoard(long board){
+        return contains(boards, board);
     }
 
     /**
@@ -161,7 +390,29 @@ public class Task {
      * @param board ID of the board where the task is added
      */
     public void addBoard(long board){
-        boards.add(board);
+        addBoard(board, true);
+    }
+
+    /**
+     * Add the task to a board
+     * @param board ID of the board where the task is added
+     * @param record false if the caller records the change in the container
+     */
+    private void addBoard(long board, boolean record){
+        BooleanSupplier write = () -> {
+            if(contains(boards, board))
+                return false;
+
+            boards = with(boards, board);
+            invalidate();
+            return true;
+        };
+
+        TaskContainer current = container;
+        if(current != null)
+            current.boardAdded(this, board, record, write);
+        else
+            write.getAsBoolean();
     }
 
     /**
@@ -169,23 +420,73 @@ public class Task {
      * @param board ID of the board whence the task is to be removed
      */
     public void removeBoard(long board){
-        boards.remove(board);
+        removeBoard(board, true);
+    }
+
+    /**
+     * Remove the task from a board
+     * @param board ID of the board whence the task is to be removed
+     * @param record false if the caller records the change in the container
+     */
+    private void removeBoard(long board, boolean record){
+        BooleanSupplier write = () -> {
+            if(!contains(boards, board))
+                return false;
+
+            boards = without(boards, board);
+            invalidate();
+            return true;
+        };
+
+        TaskContainer current = container;
+        if(current != null)
+            current.boardRemoved(this, board, record, write);
+        else
+            write.getAsBoolean();
+    }
+
+    /**
+     * Method for adding assignees to the task
+     * @param assignee ID of the user to whom the task is assigned
+     */
+    public void addAssignee(long assignee){
+        change(TaskContainer.ASSIGNEES, () -> {
+            if(contains(assignees, assignee))
+                return false;
+
+            assignees = with(assignees, assignee);
+            return true;
+        });
     }
 
     /**
      * Method for adding assignees to the task
      * @param assignee User object of the user to whom the task is assigned
      */
-    public void addAssignee(User assignee){
-        assignedEmployees.add(assignee);
+    public void addAssignee(@NotNull User assignee){
+        addAssignee(assignee.getId());
+    }
+
+    /**
+     * Method for removing assignees from the task
+     * @param assignee ID of the user from who the task is unassigned
+     */
+    public void removeAssignee(long assignee){
+        change(TaskContainer.ASSIGNEES, () -> {
+            if(!contains(assignees, assignee))
+                return false;
+
+            assignees = without(assignees, assignee);
+            return true;
+        });
     }
 
     /**
      * Method for removing assignees from the task
      * @param assignee User onbject of the user from who the task is unassigned
      */
-    public void removeAssignee(User assignee){
-        assignedEmployees.remove(assignee);
+    public void removeAssignee(@NotNull User assignee){
+        removeAssignee(assignee.getId());
     }
 
 
@@ -206,6 +507,9 @@ public class Task {
      * @return
      */
     public Map<Git, Set<String>> getGitMap() {
+        if(gitMap == null)
+            gitMap = new HashMap<>();
+
         return gitMap;
     }
 
@@ -230,7 +534,10 @@ public class Task {
      * @param completed task completion status
      */
     public void setCompleted(boolean completed) {
-        isCompleted = completed;
+        change(TaskContainer.INDEXES | TaskContainer.HIERARCHY, () -> {
+            isCompleted = completed;
+            return true;
+        });
     }
 
     /**
@@ -246,7 +553,10 @@ public class Task {
      * @param title title of the task
      */
     public void setTitle(String title) {
-        this.title = title;
+        change(TaskContainer.TEXT, () -> {
+            this.title = title;
+            return true;
+        });
     }
 
     /**
@@ -262,7 +572,10 @@ public class Task {
      * @param description description of the task
      */
     public void setDescription(String description) {
-        this.description = description;
+        change(TaskContainer.TEXT, () -> {
+            this.description = description;
+            return true;
+        });
     }
 
     /**
@@ -278,14 +591,17 @@ public class Task {
      * @param priority priority of the task
      */
     public void setPriority(int priority) {
-        this.priority = priority;
+        change(TaskContainer.INDEXES, () -> {
+            this.priority = priority;
+            return true;
+        });
     }
 
     /**
      * Method for getting the author of the task
-     * @return User object of the author of the task
+     * @return ID of the author of the task, -1 if it is not known
      */
-    public User getCreatedBy() {
+    public long getCreatedBy() {
         return createdBy;
     }
 
@@ -302,7 +618,10 @@ public class Task {
      * @param deadlineMS deadiline of the task
      */
     public void setDeadlineMS(long deadlineMS) {
-        this.deadlineMS = deadlineMS;
+        change(TaskContainer.INDEXES | TaskContainer.HIERARCHY, () -> {
+            this.deadlineMS = deadlineMS;
+            return true;
+        });
     }
 
     /**
@@ -313,6 +632,35 @@ public class Task {
         return dateCreatedMS;
     }
 
+    /**
+     * Method for getting the version of the task. The container gives the
+     * task a larger version on every change
+     * @return version of the task, 0 if the task is not in a container
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Set the version of the task, called by the container
+     * @param version the new version
+     */
+    void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Method for getting a copy of the task together with its version. The
+     * version is read before the copy is made, so the copy is never older
+     * than the version and a change based on it can not overwrite a change
+     * which is missing from the copy
+     * @return the copy and its version
+     */
+    public VersionedTask getVersionedTask() {
+        long current = version;
+        return new VersionedTask(getRawTask(), current);
+    }
+
     /**
      * Method for getting the master task of the task
      * @return master task ID of the task
@@ -323,26 +671,39 @@ public class Task {
 
     /**
      * Method for setting the mastet task of the task
-     * @param masterTaskId master task ID of the task
+     * @param masterTaskId master task ID of the task, NO_MASTER_TASK for none
+     * @throws IllegalArgumentException If the master task is this task's subtask
      */
     public void setMasterTaskId(long masterTaskId) {
-        this.masterTaskId = masterTaskId;
+        Runnable set = () -> change(TaskContainer.HIERARCHY, () -> {
+            this.masterTaskId = masterTaskId;
+            return true;
+        });
+
+        // The container checks for a cycle and sets the field under one lock
+        TaskContainer current = container;
+        if(current != null)
+            current.masterTaskSet(this, masterTaskId, set);
+        else
+            set.run();
     }
 
     /**
-     * Method for acquiring the set of the assignees
-     * @return list of the assignees of the task
+     * Method for acquiring the IDs of the assignees. The array is a copy,
+     * use addAssignee() and removeAssignee() to change the assignees
+     * @return IDs of the assignees of the task
      */
-    public Set<User> getAssignedEmployees() {
-        return assignedEmployees;
+    public long[] getAssigneeIds() {
+        return assignees.clone();
     }
 
     /**
-     * Method for getting the set of the boards
-     * @return list of the boards where this task belongs
+     * Method for getting the IDs of the boards. The array is a copy, use
+     * addBoard() and removeBoard() to change the boards
+     * @return IDs of the boards where this task belongs
      */
-    public Set<Long> getBoards() {
-        return boards;
+    public long[] getBoards() {
+        return boards.clone();
     }
 
     /**
@@ -370,16 +731,33 @@ public class Task {
         return new String(builder);
     }
 
+    /**
+     * Method for getting the name of a user for the info box
+     * @param users users whose names are shown, null if they are not known
+     * @param id ID of the user
+     * @return name of the user, "Unknown" if there is no user with the ID
+     */
+    @NotNull
+    private static String displayName(UserContainer users, long id){
+        if(users == null)
+            return "User";
+
+        User user = users.getUser(id);
+        return user != null ? user.getName() : "Unknown";
+    }
+
     /**
      * Method for formatting the assignees part of the info box
      * @param width width of the info box in characters
+     * @param users users whose names are shown, null if they are not known
      * @return assignees part of the info box
      */
     @NotNull
-    @Contract("_ -> new")
-    private String displayAssignees(int width){
+    @Contract("_, _ -> new")
+    private String displayAssignees(int width, UserContainer users){
         // Split the description into 43 character sections
-        StringBuilder builder = new StringBuilder(this.assignedEmployees.size() + 100);
+        long[] assignees = this.assignees;
+        StringBuilder builder = new StringBuilder(assignees.length * 46 + 100);
 
         // Header
         builder.append(
@@ -389,16 +767,16 @@ public class Task {
                 )
         );
 
-        if(assignedEmployees.isEmpty())
+        if(assignees.length == 0)
             builder.append(String.format("|       No users assigned to this task %-4s |\n", ""));
 
         else{
-            for (User user : assignedEmployees) {
+            for (long user : assignees) {
                 builder.append(
                         String.format(
                                 "|       %-28s %5s> |\n",
-                                this.createdBy.getName(),
-                                "<" + this.createdBy.getId()
+                                displayName(users, user),
+                                "<" + user
                         )
                 );
             }
@@ -408,11 +786,22 @@ public class Task {
     }
 
     /**
-     * Override of the toString(). Formats a beautiful info box form the task
+     * Override of the toString(). Formats a beautiful info box form the task.
+     * The users are shown without their names
      * @return String of the info box. Print it!
      */
     @Override
     public String toString() {
+        return toString(null);
+    }
+
+    /**
+     * Formats a beautiful info box form the task, with the names of the
+     * author and the assignees
+     * @param users users whose names are shown
+     * @return String of the info box. Print it!
+     */
+    public String toString(UserContainer users) {
         return "_____________________________________________\n" + // 45 _
                 String.format("| %-4d  %-35s |\n", this.taskId, this.title) + // 45
                 String.format("|%-43s|\n", "") +
@@ -422,9 +811,9 @@ public class Task {
                 String.format("| Deadline: %-31d |\n", this.deadlineMS) +
                 String.format("|%-43s|\n", "") +
                 String.format("| Reported by: %-21s %5s> |\n",
-                        (this.createdBy != null ? this.createdBy.getName() : "Unknown"),
-                        "<" + (this.createdBy != null ? this.createdBy.getId() : "")) +
-                displayAssignees(45) +
+                        (this.createdBy != -1 ? displayName(users, this.createdBy) : "Unknown"),
+                        "<" + (this.createdBy != -1 ? this.createdBy : "")) +
+                displayAssignees(45, users) +
                 String.format("|%-43s|\n", "") +
                 "|___________________________________________|\n";
 
@@ -0,0 +1,91 @@
+package common;
+
+import data.RawTask;
+
+/**
+ * IDs of the tasks which have changed or have been removed since a number
+ * of the change sequence of a TaskContainer, and the number of the last
+ * change they include. A client which remembers the number only has to
+ * ask for the changes since it on the next sync.
+ */
+public class TaskChanges {
+    private final long sequence;
+    private final long[] changed;
+    private final long[] removed;
+
+    /**
+     * Main constructor
+     * @param sequence number of the last change included
+     * @param changed IDs of the changed and the added tasks
+     * @param removed IDs of the removed tasks
+     */
+    TaskChanges(long sequence, long[] changed, long[] removed){
+        this.sequence = sequence;
+        this.changed = changed;
+        this.removed = removed;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long[] getChanged() {
+        return changed.clone();
+    }
+
+    public long[] getRemoved() {
+        return removed.clone();
+    }
+
+    /**
+     * Request for the changes since a number. The fields are public, so it
+     * can be sent over the network as JSON like the Raw classes
+     */
+    public static class Request {
+        public TaskRequest.Op op = TaskRequest.Op.CHANGES;
+
+        // Number of the last change the client has, -1 for everything
+        public long changesSince;
+
+        // Boards whose tasks the client keeps, null for all the tasks
+        public long[] boards;
+
+        /**
+         * Main constructor. Asks for the changes of all the tasks
+         * @param changesSince number of the last change the client has, -1 for everything
+         */
+        public Request(long changesSince){
+            this(changesSince, null);
+        }
+
+        /**
+         * Asks for the changes of the tasks in some boards. A task which
+         * has left the boards is sent as removed
+         * @param changesSince number of the last change the client has, -1 for everything
+         * @param boards IDs of the boards, null for all the tasks
+         */
+        public Request(long changesSince, long[] boards){
+            this.changesSince = changesSince;
+            this.boards = boards;
+        }
+
+        /**
+         * Check whether a task is in the boards of the request
+         * @param task the task
+         * @return true if the request asks for the task
+         */
+        public boolean includes(RawTask task){
+            if(boards == null)
+                return true;
+
+            for(long board: task.boards){
+                for(long wanted: boards){
+                    if(board == wanted)
+                        return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
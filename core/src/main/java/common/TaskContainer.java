@@ -1,35 +1,201 @@
 package common;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import data.RawTask;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 /**
- * Class for containing and handling the tasks
+ * Class for containing and handling the tasks. The container can be used
+ * by many threads at once. The tasks are split into stripes by their ID
+ * and every stripe has its own lock, so threads which work on different
+ * tasks rarely wait for each other. Saving the tasks waits until the
+ * running changes are done and holds new changes back until it is done.
  */
 public class TaskContainer {
-    final private List<Task> tasks;
-    private static final Gson gson = new Gson();
+    /**
+     * Part of the tasks, with their indexes and lock
+     */
+    private static class Stripe {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        // Tasks by ID, and tasks by board and ID
+        final LongMap<Task> index = new LongMap<>();
+        final LongMap<LongMap<Task>> boardIndex = new LongMap<>();
+
+        // Frozen copies of the tasks for listings, null after a change
+        volatile Listing listing;
+    }
+
+    /**
+     * Immutable copies of the tasks of a stripe. A listing is built under
+     * the read lock of the stripe and dropped by the next change, so it
+     * never holds a half changed task and readers of it never block writers
+     */
+    private static class Listing {
+        final List<VersionedTask> tasks;
+        private LongMap<List<VersionedTask>> byBoard;
+
+        Listing(List<VersionedTask> tasks){
+            this.tasks = Collections.unmodifiableList(tasks);
+        }
+
+        /**
+         * Get the copies of the tasks in a board. The copies of all the
+         * boards are grouped on the first call
+         * @param boardId ID of the board
+         * @return list of the copies
+         */
+        synchronized List<VersionedTask> board(long boardId){
+            if(byBoard == null){
+                byBoard = new LongMap<>();
+                for(VersionedTask copy: tasks){
+                    for(long board: copy.task.boards){
+                        // -1 only fills the array of a task without boards
+                        if(board == -1)
+                            continue;
+
+                        List<VersionedTask> boardTasks = byBoard.get(board);
+                        if(boardTasks == null){
+                            boardTasks = new ArrayList<>();
+                            byBoard.put(board, boardTasks);
+                        }
+                        boardTasks.add(copy);
+                    }
+                }
+            }
+
+            List<VersionedTask> boardTasks = byBoard.get(boardId);
+            return boardTasks == null ? Collections.emptyList() : Collections.unmodifiableList(boardTasks);
+        }
+    }
+
+    // Number of stripes, a power of two
+    private static final int STRIPES = 32;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // Shared by the changes, exclusive for saving
+    private final ReentrantReadWriteLock checkpoint = new ReentrantReadWriteLock();
+
     private Path inpath;
+    private final ContainerHelper<Task, RawTask> container;
+
+    // Secondary indexes, null until enabled
+    private volatile TaskIndexes indexes;
+
+    // Full-text index of titles and descriptions, null until enabled
+    private volatile TextIndex text;
+
+    // Subtasks by their master task
+    private final TaskHierarchy hierarchy = new TaskHierarchy();
+
+    // Held while a master task is checked and set
+    private final Object reparenting = new Object();
+
+    // Sequence of the changes, which also gives the versions of the tasks.
+    // Starts from the current time in microseconds, so the numbers keep
+    // growing across restarts without being stored
+    private static final int CHANGE_LOG_SIZE = 100_000;
+    private final ChangeLog changes = new ChangeLog(CHANGE_LOG_SIZE, System.currentTimeMillis() * 1000);
 
-    private final ContainerHelper<Task> container;
+    // Indexes which a change of a task has to update. INDEXES is the
+    // deadline, priority and completion part of the secondary indexes
+    static final int INDEXES = 1;
+    static final int TEXT = 2;
+    static final int HIERARCHY = 4;
+    static final int ASSIGNEES = 8;
+
+    // Journal of the changes since the last snapshot
+    private volatile TaskJournal journal;
+    private static final int COMPACTION_THRESHOLD = 10_000;
 
     // Task creation
     private long order = 0;
 
+    /**
+     * Create the stripes and the helper which saves the tasks
+     * @return the helper
+     */
+    private ContainerHelper<Task, RawTask> newHelper(){
+        for(int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+
+        return new ContainerHelper<>(this::getTasks, this::insert, RawTask.class, Task::new, Task::getRawTask, Task::getJson, Task::getId, BinaryCodec.TASK);
+    }
+
+    /**
+     * Get the stripe of a task
+     * @param id ID of the task
+     * @return the stripe which holds the task
+     */
+    private Stripe stripe(long id){
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 32) & (STRIPES - 1)];
+    }
+
+    /**
+     * Run a change of a task. Holds the lock of the task's stripe, and
+     * keeps saving from starting in the middle of the change
+     * @param id ID of the task
+     * @param change the change
+     * @return result of the change
+     */
+    private <T> T change(long id, Supplier<T> change){
+        Stripe stripe = stripe(id);
+
+        checkpoint.readLock().lock();
+        stripe.lock.writeLock().lock();
+        try{
+            return change.get();
+        }finally {
+            stripe.lock.writeLock().unlock();
+            checkpoint.readLock().unlock();
+        }
+    }
+
+    /**
+     * Run an operation which saves the tasks. Waits for the running
+     * changes and holds new changes back until the operation is done
+     * @param operation the operation
+     * @throws IOException If file IO fails
+     */
+    private void exclusive(IOAction operation) throws IOException {
+        checkpoint.writeLock().lock();
+        try{
+            operation.run();
+        }finally {
+            checkpoint.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Operation which may fail with IOException
+     */
+    @FunctionalInterface
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
     /**
      * Default constructor. Initializes the list of the tasks
      */
     public TaskContainer() throws IOException{
-        this.tasks = new ArrayList<>();
-        container = new ContainerHelper<>(tasks);
+        container = newHelper();
     }
 
     /**
@@ -40,8 +206,7 @@ public class TaskContainer {
      * @throws IOException If file IO fails
      */
     public TaskContainer(String path) throws IOException {
-        tasks = new ArrayList<>();
-        container = new ContainerHelper<>(tasks);
+        container = newHelper();
         importTasks(path);
     }
 
@@ -52,11 +217,322 @@ public class TaskContainer {
      * @throws IOException If file IO failed
      */
     public TaskContainer(@NotNull Path path) throws IOException {
-        tasks = new ArrayList<>();
-        container = new ContainerHelper<>(tasks);
+        container = newHelper();
         importTasks(path);
     }
 
+    /**
+     * Journaled variant of the constructor. The tasks are imported from the
+     * snapshot pointed to by path and then the changes in the journal are
+     * applied. After that every change is appended to the journal and the
+     * snapshot is only rewritten when the journal is compacted.
+     * Changes are handed to the operating system without fsync.
+     * @param path Path object of the snapshot directory/file of tasks
+     * @param journalPath Path object of the journal file
+     * @throws IOException If file IO failed
+     */
+    public TaskContainer(@NotNull Path path, @NotNull Path journalPath) throws IOException {
+        this(path, journalPath, FsyncPolicy.OS, 0);
+    }
+
+    /**
+     * Journaled variant of the constructor with the policy of forcing the
+     * journal to the disk.
+     * @param path Path object of the snapshot directory/file of tasks
+     * @param journalPath Path object of the journal file
+     * @param policy when the changes are forced to the disk
+     * @param fsyncIntervalMS interval of forcing for FsyncPolicy.INTERVAL, in MS
+     * @throws IOException If file IO failed
+     */
+    public TaskContainer(@NotNull Path path, @NotNull Path journalPath, @NotNull FsyncPolicy policy, long fsyncIntervalMS) throws IOException {
+        container = newHelper();
+        importTasks(path);
+
+        // Apply the changes made after the snapshot
+        journal = new TaskJournal(journalPath, policy, fsyncIntervalMS);
+        boolean clean = journal.replay(this::applyJournalEntry);
+        journal.open();
+
+        // Get rid of the torn line before appending after it
+        if(!clean)
+            compact();
+    }
+
+    /**
+     * Apply a change read from the journal. Creates and updates replace the
+     * task with the same ID, so applying a change twice does no harm
+     * @param operation kind of the change
+     * @param taskId ID of the changed task
+     * @param task new version of the task
+     * @param patch changed fields of the task, for PATCH
+     */
+    private void applyJournalEntry(TaskJournal.Operation operation, long taskId, RawTask task, TaskPatch patch){
+        Task previous = stripe(taskId).index.get(taskId);
+
+        // Patches set fields and add to sets, so applying one twice does no harm either
+        if(operation == TaskJournal.Operation.PATCH){
+            if(previous != null){
+                reindex(previous, previous.apply(patch));
+                container.markDirty(previous);
+            }
+            return;
+        }
+
+        if(previous != null){
+            delete(previous);
+            container.markRemoved(previous);
+        }
+
+        // The snapshot does not have the change yet
+        if(operation != TaskJournal.Operation.REMOVE){
+            Task replayed = new Task(task);
+            insert(replayed);
+            container.markDirty(replayed);
+        }
+    }
+
+    /**
+     * Add a task to the indexes, replacing the task with the same ID.
+     * The task reports changes of its boards back to this container.
+     * Caller must hold the lock of the task's stripe
+     * @param task task to be added
+     */
+    private void insert(Task task){
+        Task previous = stripe(task.getId()).index.get(task.getId());
+        if(previous != null && previous != task)
+            delete(previous);
+
+        stripe(task.getId()).index.put(task.getId(), task);
+        task.container = this;
+        stamp(task);
+
+        for(long board: task.getBoards())
+            indexBoard(task, board);
+
+        TaskIndexes current = indexes;
+        if(current != null)
+            current.update(task);
+
+        TextIndex currentText = text;
+        if(currentText != null)
+            currentText.update(task);
+
+        hierarchy.update(task);
+    }
+
+    /**
+     * Remove a task from the indexes. Caller must hold the lock of the
+     * task's stripe
+     * @param task task to be removed
+     */
+    private void delete(Task task){
+        for(long board: task.getBoards())
+            unindexBoard(task, board);
+
+        stripe(task.getId()).index.remove(task.getId());
+        stripe(task.getId()).listing = null;
+        if(task.container == this)
+            task.container = null;
+
+        TaskIndexes current = indexes;
+        if(current != null)
+            current.remove(task);
+
+        TextIndex currentText = text;
+        if(currentText != null)
+            currentText.remove(task);
+
+        hierarchy.remove(task);
+    }
+
+    /**
+     * Give a changed task a new version and drop the listing of its stripe.
+     * Caller must hold the write lock of the task's stripe
+     * @param task the changed task
+     */
+    private void stamp(Task task){
+        // Dropped before the change is numbered, so a listing taken after
+        // the number is seen has the change
+        stripe(task.getId()).listing = null;
+        task.setVersion(changes.record(task.getId(), false));
+    }
+
+    /**
+     * Called by a task of this container when it is added to a board
+     * @param task the task
+     * @param board ID of the board
+     * @param record true to record the change for the next save and in the
+     *               journal, false if the caller records it, like a patch does
+     * @param write adds the board to the task under the lock of its stripe, returns false if it was there
+     */
+    void boardAdded(Task task, long board, boolean record, BooleanSupplier write){
+        change(task.getId(), () -> {
+            if(write.getAsBoolean() && indexBoard(task, board) && record)
+                recordChange(TaskJournal.Operation.UPDATE, task);
+            return null;
+        });
+    }
+
+    /**
+     * Called by a task of this container when it is removed from a board
+     * @param task the task
+     * @param board ID of the board
+     * @param record true to record the change for the next save and in the
+     *               journal, false if the caller records it, like a patch does
+     * @param write removes the board from the task under the lock of its stripe, returns false if it was not there
+     */
+    void boardRemoved(Task task, long board, boolean record, BooleanSupplier write){
+        change(task.getId(), () -> {
+            if(write.getAsBoolean() && unindexBoard(task, board) && record)
+                recordChange(TaskJournal.Operation.UPDATE, task);
+            return null;
+        });
+    }
+
+    /**
+     * Add a task to the index of a board. Caller must hold the write lock
+     * of the task's stripe
+     * @param task the task
+     * @param board ID of the board
+     * @return true if the task is in the container and has been stamped
+     */
+    private boolean indexBoard(Task task, long board){
+        Stripe stripe = stripe(task.getId());
+
+        LongMap<Task> boardTasks = stripe.boardIndex.get(board);
+        if(boardTasks == null){
+            boardTasks = new LongMap<>();
+            stripe.boardIndex.put(board, boardTasks);
+        }
+
+        boardTasks.put(task.getId(), task);
+        if(stripe.index.get(task.getId()) != task)
+            return false;
+
+        stamp(task);
+        return true;
+    }
+
+    /**
+     * Remove a task from the index of a board. Caller must hold the write
+     * lock of the task's stripe
+     * @param task the task
+     * @param board ID of the board
+     * @return true if the task is in the container and has been stamped
+     */
+    private boolean unindexBoard(Task task, long board){
+        Stripe stripe = stripe(task.getId());
+
+        LongMap<Task> boardTasks = stripe.boardIndex.get(board);
+        if(boardTasks == null || boardTasks.get(task.getId()) != task)
+            return false;
+
+        boardTasks.remove(task.getId());
+        if(boardTasks.isEmpty())
+            stripe.boardIndex.remove(board);
+
+        if(stripe.index.get(task.getId()) != task)
+            return false;
+
+        stamp(task);
+        return true;
+    }
+
+    /**
+     * Called by a task of this container when its assignees, deadline,
+     * priority, completion, title, description or master task change.
+     * The change is recorded for the next save and in the journal, like
+     * the changes made through the container
+     * @param task the task
+     * @param changed indexes which have to be updated, INDEXES, ASSIGNEES, TEXT and HIERARCHY
+     * @param write writes the fields of the task under the lock of its stripe, returns false if nothing changed
+     */
+    void taskChanged(Task task, int changed, BooleanSupplier write){
+        change(task.getId(), () -> {
+            if(!write.getAsBoolean())
+                return null;
+
+            if(stripe(task.getId()).index.get(task.getId()) != task || changed == 0)
+                return null;
+
+            reindex(task, changed);
+            recordChange(TaskJournal.Operation.UPDATE, task);
+            return null;
+        });
+    }
+
+    /**
+     * Give a changed task a new version and update the indexes which depend
+     * on the changed fields. Caller must hold the write lock of the task's
+     * stripe, and records the change
+     * @param task the changed task
+     * @param changed indexes which have to be updated, INDEXES, ASSIGNEES, TEXT and HIERARCHY
+     */
+    private void reindex(Task task, int changed){
+        if(changed == 0)
+            return;
+
+        stamp(task);
+
+        TaskIndexes current = indexes;
+        if(current != null && (changed & (INDEXES | ASSIGNEES)) != 0)
+            current.update(task, (changed & ASSIGNEES) != 0);
+
+        TextIndex currentText = text;
+        if(currentText != null && (changed & TEXT) != 0)
+            currentText.update(task);
+
+        if((changed & HIERARCHY) != 0)
+            hierarchy.update(task);
+    }
+
+    /**
+     * Record a change for the next export and append it to the journal,
+     * if the container has one
+     * @param operation kind of the change
+     * @param task changed task
+     */
+    private void recordChange(TaskJournal.Operation operation, Task task){
+        if(operation == TaskJournal.Operation.REMOVE){
+            container.markRemoved(task);
+            changes.record(task.getId(), true);
+        }else
+            container.markDirty(task);
+
+        if(journal == null)
+            return;
+
+        try{
+            journal.append(
+                    operation,
+                    task.getId(),
+                    operation == TaskJournal.Operation.REMOVE ? null : task.getRawTask()
+            );
+        }catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write a snapshot of all the tasks into the path whence they were
+     * imported and empty the journal. In file mode the snapshot is written
+     * next to the old one and moved over it, so a crash can not leave a
+     * half written snapshot behind.
+     * @throws IOException If file IO fails
+     */
+    private void compact() throws IOException {
+        if(Files.isRegularFile(inpath)){
+            Path temporary = inpath.resolveSibling(inpath.getFileName() + ".snapshot");
+            Files.deleteIfExists(temporary);
+            saveTasks(temporary);
+            Files.move(temporary, inpath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }else{
+            saveTasks(inpath);
+        }
+
+        journal.truncate();
+    }
+
     /**
      * Imports thasks from given paths. The path
      * has to point to a directory/file. The tasks have to be in JSON
@@ -78,21 +554,36 @@ public class TaskContainer {
     private void importTasks(Path path) throws IOException {
         /* Fill the list */
         try{
-            container.importItems(path, json -> new Task(gson.fromJson(json, RawTask.class)));
+            container.importItems(path);
         }catch(JsonSyntaxException e){
             System.out.println("Failed to import tasks");
         }
+
         // Set the save path
         inpath = path;
     }
 
+    /**
+     * Set the format in which the tasks are saved. Imported files are read
+     * in whichever format they are in, so they are converted on the next save
+     * @param format new storage format
+     */
+    public void setStorageFormat(StorageFormat format){
+        checkpoint.writeLock().lock();
+        try{
+            container.setFormat(format);
+        }finally {
+            checkpoint.writeLock().unlock();
+        }
+    }
+
     /**
      * Export stored tasks into a directory, specified by the path
      * @param path path to the save directory
      * @throws IOException If file IO fails
      */
     public void saveTasks(Path path) throws IOException {
-        container.exportItems(path, task -> gson.toJson(task.getRawTask(), RawTask.class));
+        exclusive(() -> container.exportItems(path));
     }
 
     /**
@@ -109,20 +600,80 @@ public class TaskContainer {
                     "Can not save tasks: path to the save directory does not exist. Call saveUsers(String path) variant instead"
             );
 
-        saveTasks(inpath);
+        // The journal has to be emptied together with writing the snapshot
+        if(journal != null)
+            exclusive(this::compact);
+        else
+            saveTasks(inpath);
+    }
+
+    /**
+     * Make the changes durable. Without a journal all the tasks are saved.
+     * With a journal the changes are already in it, so the journal is only
+     * compacted into a new snapshot once it has grown long enough.
+     * @throws IOException If file IO fails
+     */
+    public void commit() throws IOException {
+        if(journal == null)
+            saveTasks();
+        else if(journal.size() >= COMPACTION_THRESHOLD)
+            exclusive(this::compact);
+    }
+
+    /**
+     * Wait until the changes made so far are forced to the disk, as the
+     * FsyncPolicy of the journal requires. Changes made by concurrent threads
+     * are forced together. Does not hold any lock, so other threads can keep
+     * changing the container meanwhile
+     * @throws IOException If writing the journal failed
+     */
+    public void awaitDurable() throws IOException {
+        TaskJournal current = journal;
+        if(current != null)
+            current.awaitDurable();
+    }
+
+    /**
+     * Get a future which is completed when the changes made so far are
+     * forced to the disk, as the FsyncPolicy of the journal requires. Unlike
+     * awaitDurable() it does not block, so a thread which serves many
+     * clients can reply once the future is completed. The future is
+     * completed on the committer thread of the journal
+     * @return the future, failed if writing the journal failed
+     */
+    public CompletableFuture<Void> whenDurable(){
+        TaskJournal current = journal;
+        if(current == null)
+            return CompletableFuture.completedFuture(null);
+
+        return current.whenDurable();
+    }
+
+    /**
+     * Close the journal. The container must not be modified afterwards
+     * @throws IOException If file IO fails
+     */
+    public void close() throws IOException {
+        if(journal != null)
+            exclusive(journal::close);
     }
 
     /**
      * Method for adding a task to the container
      * @param task Task to be added to the container
-     * @throws IllegalArgumentException If task with the given ID already exists
+     * @throws IllegalArgumentException If task with the given ID already exists,
+     * or its master task would create a cycle
      */
     public void addTask(Task task) {
-        // Check if task already exists!
-        Task testTask = getTask(task.getId());
-        if(testTask != null)
-            throw new IllegalArgumentException("Task with given ID already exists");
-        tasks.add(task);
+        reparent(task.getId(), task.getMasterTaskId(), () -> change(task.getId(), () -> {
+            // Check if task already exists!
+            Task testTask = stripe(task.getId()).index.get(task.getId());
+            if(testTask != null)
+                throw new IllegalArgumentException("Task with given ID already exists");
+            insert(task);
+            recordChange(TaskJournal.Operation.CREATE, task);
+            return task;
+        }));
     }
 
     /**
@@ -130,7 +681,17 @@ public class TaskContainer {
      * @param task Task to be removed from the container
      */
     public void removeTask(Task task){
-        tasks.remove(task);
+        if(task == null)
+            return;
+
+        change(task.getId(), () -> {
+            if(stripe(task.getId()).index.get(task.getId()) != task)
+                return null;
+
+            delete(task);
+            recordChange(TaskJournal.Operation.REMOVE, task);
+            return task;
+        });
     }
 
     /**
@@ -139,7 +700,45 @@ public class TaskContainer {
      * @param id ID of the task to be removed
      */
     public void removeTask(long id){
-        removeTask(getTask(id));
+        change(id, () -> {
+            Task task = stripe(id).index.get(id);
+            if(task == null)
+                return null;
+
+            delete(task);
+            recordChange(TaskJournal.Operation.REMOVE, task);
+            return task;
+        });
+    }
+
+    /**
+     * Method for recording a change made to a task in place. The setters
+     * of the task record their changes themselves, this writes the task
+     * again on the next save and in the journal
+     * @param task the changed task
+     */
+    public void markChanged(Task task){
+        if(task == null)
+            return;
+
+        change(task.getId(), () -> {
+            if(stripe(task.getId()).index.get(task.getId()) == task)
+                recordChange(TaskJournal.Operation.UPDATE, task);
+            return task;
+        });
+    }
+
+    /**
+     * Add a newly created task to the container
+     * @param newTask the created task
+     * @return the created task
+     */
+    private Task create(Task newTask){
+        return reparent(newTask.getId(), newTask.getMasterTaskId(), () -> change(newTask.getId(), () -> {
+            insert(newTask);
+            recordChange(TaskJournal.Operation.CREATE, newTask);
+            return newTask;
+        }));
     }
 
     /**
@@ -148,9 +747,7 @@ public class TaskContainer {
      * @return the created task
      */
     public Task newTask(long id, String name){
-        Task newTask = new Task(id, name);
-        tasks.add(newTask);
-        return newTask;
+        return create(new Task(id, name));
     }
 
     /**
@@ -165,9 +762,7 @@ public class TaskContainer {
      * @return the created task
      */
     public Task newTask(long id, String name, String description, long board, long deadline, User author, int priority){
-        Task newTask = new Task(id, name, description, board, deadline, author, priority);
-        tasks.add(newTask);
-        return newTask;
+        return create(new Task(id, name, description, board, deadline, author, priority));
     }
 
     /**
@@ -176,52 +771,339 @@ public class TaskContainer {
      * @return the created task
      */
     public Task newTask(RawTask task){
-        Task newTask = new Task(task);
-        tasks.add(newTask);
-        return newTask;
+        return create(new Task(task));
     }
 
     /**
      * Updates the given task. Replaces it with the new version
      * @param task the new and better task
      * @return the created task
+     * @throws IllegalArgumentException If the new master task would create a cycle
      */
     public Task updateTask(RawTask task){
-        // Remove the previous version from the list if it exists
-        if(tasks.indexOf(getTask(task.taskId)) != -1)
-            tasks.remove(getTask(task.taskId));
+        Task newTask = new Task(task);
+
+        return reparent(task.taskId, task.masterTaskId, () -> change(task.taskId, () -> {
+            // Replace the previous version with the new version
+            insert(newTask);
+            recordChange(TaskJournal.Operation.UPDATE, newTask);
+            return newTask;
+        }));
+    }
+
+    /**
+     * Replaces a task with a version received from the server, or adds it.
+     * The master task is not checked: the server has checked it, and the
+     * changes of other tasks may arrive in another order than they were
+     * made, so a copy of the tasks can hold a cycle until they have all arrived
+     * @param task the task as it is on the server
+     * @return the stored task
+     */
+    public Task replaceTask(RawTask task){
+        Task newTask = new Task(task);
+
+        return change(task.taskId, () -> {
+            insert(newTask);
+            recordChange(TaskJournal.Operation.UPDATE, newTask);
+            return newTask;
+        });
+    }
+
+    /**
+     * Updates the given task if it has not changed since a version. Replaces
+     * it with the new version. Writers are not serialized, a stale update is
+     * rejected instead of overwriting the changes made after it was read
+     * @param task the new and better task
+     * @param expectedVersion version of the task the update is based on
+     * @return the created task
+     * @throws VersionConflictException If the task has changed since the version, or does not exist
+     * @throws IllegalArgumentException If the new master task would create a cycle
+     */
+    public Task updateTask(RawTask task, long expectedVersion){
+        Task newTask = new Task(task);
+
+        return reparent(task.taskId, task.masterTaskId, () -> change(task.taskId, () -> {
+            Task previous = stripe(task.taskId).index.get(task.taskId);
+            if(previous == null || previous.getVersion() != expectedVersion)
+                throw new VersionConflictException(task.taskId, expectedVersion, previous == null ? -1 : previous.getVersion());
+
+            insert(newTask);
+            recordChange(TaskJournal.Operation.UPDATE, newTask);
+            return newTask;
+        }));
+    }
+
+    /**
+     * Throw if a master task would create a cycle
+     * @param id ID of the task
+     * @param masterTaskId ID of the master task
+     * @throws IllegalArgumentException If the master task is the task or one of its subtasks
+     */
+    private void checkMasterTask(long id, long masterTaskId){
+        if(hierarchy.createsCycle(id, masterTaskId))
+            throw new IllegalArgumentException("Task " + masterTaskId + " is a subtask of task " + id);
+    }
+
+    /**
+     * Run a change which sets the master task of a task. The cycle check
+     * and the change are made under one lock, so two changes, like A under
+     * B and B under A, can not both pass the check and make a cycle together.
+     * Changes which take the master task away can not make a cycle and do
+     * not wait for the lock
+     * @param id ID of the task
+     * @param masterTaskId ID of the new master task
+     * @param change the change
+     * @return result of the change
+     * @throws IllegalArgumentException If the master task is the task or one of its subtasks
+     */
+    private <T> T reparent(long id, long masterTaskId, Supplier<T> change){
+        if(!TaskHierarchy.hasParent(id, masterTaskId))
+            return change.get();
+
+        synchronized (reparenting){
+            checkMasterTask(id, masterTaskId);
+            return change.get();
+        }
+    }
+
+    /**
+     * Called by a task of this container when its master task is set
+     * @param task the task
+     * @param masterTaskId ID of the new master task
+     * @param set sets the field and reports the change
+     * @throws IllegalArgumentException If the master task is the task or one of its subtasks
+     */
+    void masterTaskSet(Task task, long masterTaskId, Runnable set){
+        reparent(task.getId(), masterTaskId, () -> {
+            set.run();
+            return null;
+        });
+    }
 
-        // Replace it with the new version
-        return newTask(task);
+    /**
+     * Method for checking whether a task can be made the subtask of another
+     * @param id ID of the task
+     * @param masterTaskId ID of the new master task
+     * @return true if the master task is the task or one of its subtasks
+     */
+    public boolean createsCycle(long id, long masterTaskId){
+        return hierarchy.createsCycle(id, masterTaskId);
     }
 
     /**
-     * Method for getting the list of the tasks
+     * Method for getting the direct subtasks of a task
+     * @param id ID of the task
+     * @return list of the tasks whose master task is the task
+     */
+    public List<Task> getSubtasks(long id){
+        return hierarchy.children(id);
+    }
+
+    /**
+     * Method for getting all the subtasks under a task, breadth first
+     * @param id ID of the task
+     * @return list of the subtasks at any depth, without the task itself
+     */
+    public List<Task> getSubtree(long id){
+        return hierarchy.subtree(id);
+    }
+
+    /**
+     * Method for getting the number of the direct subtasks of a task, how
+     * many of them are completed and their earliest deadline
+     * @param id ID of the task
+     * @return the rollup of the subtasks
+     */
+    public TaskRollup getRollup(long id){
+        return hierarchy.rollup(id);
+    }
+
+    /**
+     * Method for changing some fields of a task in place. Unlike
+     * updateTask(), the task is not replaced, only the patched fields and
+     * the indexes which depend on them are updated, and only the patch is
+     * written to the journal
+     * @param patch the changed fields
+     * @return the patched task, null if there is no task with the ID
+     * @throws IllegalArgumentException If the new master task would create a cycle
+     * @throws VersionConflictException If the patch has an expected version
+     * and the task has changed since it
+     */
+    public Task patchTask(@NotNull TaskPatch patch){
+        long masterTaskId = patch.masterTaskId != null ? patch.masterTaskId : Task.NO_MASTER_TASK;
+
+        return reparent(patch.taskId, masterTaskId, () -> change(patch.taskId, () -> {
+            Task task = stripe(patch.taskId).index.get(patch.taskId);
+            if(task == null && patch.expectedVersion != null)
+                throw new VersionConflictException(patch.taskId, patch.expectedVersion, -1);
+            if(task == null)
+                return null;
+
+            // Compare and set, the check and the change are under the lock of the stripe
+            if(patch.expectedVersion != null && task.getVersion() != patch.expectedVersion)
+                throw new VersionConflictException(patch.taskId, patch.expectedVersion, task.getVersion());
+
+            reindex(task, task.apply(patch));
+
+            container.markDirty(task);
+            if(journal != null){
+                try{
+                    journal.appendPatch(patch);
+                }catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            return task;
+        }));
+    }
+
+    /**
+     * Get the listing of a stripe, building it if the stripe has changed
+     * since the last one
+     * @param stripe the stripe
+     * @return the listing
+     */
+    private Listing listing(Stripe stripe){
+        Listing current = stripe.listing;
+        if(current != null)
+            return current;
+
+        stripe.lock.readLock().lock();
+        try{
+            // Published before the lock is released, so no change can drop it in between
+            List<VersionedTask> copies = new ArrayList<>(stripe.index.size());
+            for(Task task: stripe.index.values())
+                copies.add(task.getVersionedTask());
+
+            current = new Listing(copies);
+            stripe.listing = current;
+            return current;
+        }finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Method for getting frozen copies of all the tasks, in no particular
+     * order. Every task is copied as it was between two changes, and the
+     * copies are shared with other readers until the tasks change again,
+     * so a long listing neither blocks writers nor sees a half made change.
+     * Tasks in different stripes may be copied at different times
+     * @return unmodifiable list of the copies
+     */
+    public List<RawTask> getRawTasks(){
+        List<RawTask> out = new ArrayList<>();
+        for(Stripe stripe: stripes)
+            for(VersionedTask copy: listing(stripe).tasks)
+                out.add(copy.task);
+
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Method for getting frozen copies of the tasks in a board, like getRawTasks()
+     * @param boardId ID of the board
+     * @return unmodifiable list of the copies
+     */
+    public List<RawTask> getRawTasks(long boardId){
+        List<RawTask> out = new ArrayList<>();
+        for(Stripe stripe: stripes)
+            for(VersionedTask copy: listing(stripe).board(boardId))
+                out.add(copy.task);
+
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Method for getting frozen copies of all the tasks with the versions
+     * they were copied at, like getRawTasks()
+     * @return unmodifiable list of the copies
+     */
+    public List<VersionedTask> getVersionedTasks(){
+        List<VersionedTask> out = new ArrayList<>();
+        for(Stripe stripe: stripes)
+            out.addAll(listing(stripe).tasks);
+
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Method for getting frozen copies of the tasks in a board with the
+     * versions they were copied at, like getRawTasks()
+     * @param boardId ID of the board
+     * @return unmodifiable list of the copies
+     */
+    public List<VersionedTask> getVersionedTasks(long boardId){
+        List<VersionedTask> out = new ArrayList<>();
+        for(Stripe stripe: stripes)
+            out.addAll(listing(stripe).board(boardId));
+
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Method for getting the list of the tasks, in no particular order.
+     * The list is a copy, so it can be iterated while other threads modify
+     * the container
      * @return list of the tasks
      */
     public List<Task> getTasks(){
-        return tasks;
+        List<Task> out = new ArrayList<>();
+
+        for(Stripe stripe: stripes){
+            stripe.lock.readLock().lock();
+            try{
+                out.addAll(stripe.index.values());
+            }finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+
+        return out;
     }
 
     /**
      * Board variant of the getTasks(). This method returns only the tasks
-     * with given board ID
+     * with given board ID. The tasks are looked up from the board index,
+     * so the cost depends on the size of the board
      * @param boardId which' boards tasks are to be returned
      * @return list of the tasks in given board
      */
     public List<Task> getTasks(long boardId){
-        List<Task> newTasks = new ArrayList<>();
+        List<Task> out = new ArrayList<>();
 
-        for(Task task: tasks){
-            for(long board: task.getBoards()){
-                if(board == boardId){
-                    newTasks.add(task);
-                    break;
-                }
+        for(Stripe stripe: stripes){
+            stripe.lock.readLock().lock();
+            try{
+                LongMap<Task> boardTasks = stripe.boardIndex.get(boardId);
+                if(boardTasks != null)
+                    out.addAll(boardTasks.values());
+            }finally {
+                stripe.lock.readLock().unlock();
             }
         }
 
-        return newTasks;
+        return out;
+    }
+
+    /**
+     * Get the number of the last change of the tasks
+     * @return the number, a client which has every task as of now has seen it
+     */
+    public long getSequence(){
+        return changes.current();
+    }
+
+    /**
+     * Get the tasks which have changed since a number of the change
+     * sequence. Only the last changes are kept, a client which asks for
+     * older ones has to fetch all the tasks again
+     * @param since number of the last change the caller has seen
+     * @return the changed and the removed tasks, null if the changes since the number are not kept
+     */
+    public TaskChanges getChangesSince(long since){
+        return changes.since(since);
     }
 
     /**
@@ -230,12 +1112,345 @@ public class TaskContainer {
      * @return the task with given ID. Is null when task with given ID does not exist
      */
     public Task getTask(long id){
-        for(Task task: tasks){
-            if(task.getId() == id){
-                return task;
+        Stripe stripe = stripe(id);
+
+        stripe.lock.readLock().lock();
+        try{
+            return stripe.index.get(id);
+        }finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Build and start maintaining the secondary indexes on assignee,
+     * deadline, priority and completion. Until they are enabled the
+     * lookups below scan all the tasks. Does nothing if they are enabled
+     */
+    public void enableIndexes(){
+        synchronized (stripes){
+            if(indexes != null)
+                return;
+
+            // Changes made from now on are indexed by insert() and delete()
+            TaskIndexes created = new TaskIndexes();
+            indexes = created;
+
+            for(Stripe stripe: stripes){
+                stripe.lock.writeLock().lock();
+                try{
+                    for(Task task: stripe.index.values())
+                        created.update(task);
+                }finally {
+                    stripe.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Build and start maintaining the full-text index over the titles and
+     * descriptions. Until it is enabled a search indexes all the tasks
+     * first. Does nothing if it is enabled
+     */
+    public void enableSearch(){
+        synchronized (stripes){
+            if(text != null)
+                return;
+
+            // Changes made from now on are indexed by insert() and delete()
+            TextIndex created = new TextIndex();
+            text = created;
+
+            for(Stripe stripe: stripes){
+                stripe.lock.writeLock().lock();
+                try{
+                    for(Task task: stripe.index.values())
+                        created.update(task);
+                }finally {
+                    stripe.lock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the full-text index, or a temporary one over all the tasks if
+     * the index is not enabled
+     * @return the index
+     */
+    private TextIndex textIndex(){
+        TextIndex current = text;
+        if(current != null)
+            return current;
+
+        TextIndex temporary = new TextIndex();
+        for(Task task: getTasks())
+            temporary.update(task);
+
+        return temporary;
+    }
+
+    /**
+     * Search the titles and descriptions of the tasks. A task matches if it
+     * contains any of the words of the text, the tasks which contain more
+     * and rarer words rank higher
+     * @param text the searched words
+     * @param limit maximum number of results
+     * @return the best matching tasks, best match first
+     */
+    public List<Task> search(String text, int limit){
+        if(limit <= 0)
+            return new ArrayList<>();
+
+        return textIndex().search(text, limit);
+    }
+
+    /**
+     * Method for getting the tasks assigned to a user
+     * @param userId ID of the user
+     * @return list of the tasks assigned to the user
+     */
+    public List<Task> getTasksAssignedTo(long userId){
+        TaskIndexes current = indexes;
+        if(current != null)
+            return current.assignedTo(userId);
+
+        List<Task> out = new ArrayList<>();
+        for(Task task: getTasks()){
+            if(task.isAssignedTo(userId))
+                out.add(task);
+        }
+
+        return out;
+    }
+
+    /**
+     * Method for getting the tasks with a deadline in a range
+     * @param fromMS start of the range, inclusive
+     * @param toMS end of the range, exclusive
+     * @return list of the tasks, sorted by the deadline
+     */
+    public List<Task> getTasksByDeadline(long fromMS, long toMS){
+        TaskIndexes current = indexes;
+        if(current != null)
+            return current.deadlineBetween(fromMS, toMS);
+
+        List<Task> out = new ArrayList<>();
+        for(Task task: getTasks()){
+            if(task.getDeadlineMS() >= fromMS && task.getDeadlineMS() < toMS)
+                out.add(task);
+        }
+
+        out.sort(Comparator.comparingLong(Task::getDeadlineMS));
+        return out;
+    }
+
+    /**
+     * Method for getting the tasks with a priority in a range
+     * @param from lowest priority, inclusive
+     * @param to highest priority, inclusive
+     * @return list of the tasks, sorted by the priority
+     */
+    public List<Task> getTasksByPriority(int from, int to){
+        TaskIndexes current = indexes;
+        if(current != null)
+            return current.priorityBetween(from, to);
+
+        List<Task> out = new ArrayList<>();
+        for(Task task: getTasks()){
+            if(task.getPriority() >= from && task.getPriority() <= to)
+                out.add(task);
+        }
+
+        out.sort(Comparator.comparingInt(Task::getPriority));
+        return out;
+    }
+
+    /**
+     * Method for getting the completed or the open tasks
+     * @param completed true for completed tasks, false for open ones
+     * @return list of the tasks
+     */
+    public List<Task> getTasksByCompletion(boolean completed){
+        TaskIndexes current = indexes;
+        if(current != null)
+            return current.withCompletion(completed);
+
+        List<Task> out = new ArrayList<>();
+        for(Task task: getTasks()){
+            if(task.isCompleted() == completed)
+                out.add(task);
+        }
+
+        return out;
+    }
+
+    /**
+     * Count the tasks in a board
+     * @param boardId ID of the board
+     * @return number of the tasks in the board
+     */
+    private int countBoard(long boardId){
+        int count = 0;
+
+        for(Stripe stripe: stripes){
+            stripe.lock.readLock().lock();
+            try{
+                LongMap<Task> boardTasks = stripe.boardIndex.get(boardId);
+                if(boardTasks != null)
+                    count += boardTasks.size();
+            }finally {
+                stripe.lock.readLock().unlock();
             }
         }
 
-        return null;
+        return count;
+    }
+
+    /**
+     * Run a query. The candidates are taken from the most selective index
+     * which the filters of the query can use, the full-text index, the board
+     * index or one of the secondary indexes, and the rest of the filters are
+     * checked on them.
+     * Without any usable index all the tasks are scanned. Only the page of
+     * the results is kept sorted while the candidates are checked
+     * @param query the query
+     * @return the page of the matching tasks, in the order of the query
+     * @throws IllegalArgumentException If the offset of the page is negative
+     */
+    public List<Task> query(@NotNull TaskQuery query){
+        if(query.offset < 0)
+            throw new IllegalArgumentException("Offset of the page can not be negative");
+
+        long deadlineFrom = query.deadlineFromMS != null ? query.deadlineFromMS : Long.MIN_VALUE;
+        long deadlineTo = query.deadlineToMS != null ? query.deadlineToMS : Long.MAX_VALUE;
+        int priorityFrom = query.minPriority != null ? query.minPriority : Integer.MIN_VALUE;
+        int priorityTo = query.maxPriority != null ? query.maxPriority : Integer.MAX_VALUE;
+
+        // Empty ranges match nothing
+        if(deadlineFrom >= deadlineTo || priorityFrom > priorityTo)
+            return new ArrayList<>();
+
+        // Pick the smallest candidate set
+        Supplier<List<Task>> source = this::getTasks;
+        int best = Integer.MAX_VALUE;
+
+        // Searched text limits the candidates to the tasks with its words
+        LongMap<TextIndex.Hit> hits = new LongMap<>();
+        if(query.text != null){
+            List<Task> found = new ArrayList<>();
+            for(TextIndex.Hit hit: textIndex().search(query.text)){
+                hits.put(hit.task.getId(), hit);
+                found.add(hit.task);
+            }
+
+            best = found.size();
+            source = () -> found;
+        }
+
+        if(query.boardId != null){
+            long boardId = query.boardId;
+            int count = countBoard(boardId);
+            if(count < best){
+                best = count;
+                source = () -> getTasks(boardId);
+            }
+        }
+
+        TaskIndexes current = indexes;
+        if(current != null){
+            if(query.assigneeId != null){
+                long assigneeId = query.assigneeId;
+                int count = current.countAssignedTo(assigneeId);
+                if(count < best){
+                    best = count;
+                    source = () -> current.assignedTo(assigneeId);
+                }
+            }
+
+            if(query.completed != null){
+                boolean completed = query.completed;
+                int count = current.countCompletion(completed);
+                if(count < best){
+                    best = count;
+                    source = () -> current.withCompletion(completed);
+                }
+            }
+
+            if(query.minPriority != null || query.maxPriority != null){
+                int count = current.countPriorityBetween(priorityFrom, priorityTo, best);
+                if(count < best){
+                    best = count;
+                    source = () -> current.priorityBetween(priorityFrom, priorityTo);
+                }
+            }
+
+            if(query.deadlineFromMS != null || query.deadlineToMS != null){
+                int count = current.countDeadlineBetween(deadlineFrom, deadlineTo, best);
+                if(count < best){
+                    source = () -> current.deadlineBetween(deadlineFrom, deadlineTo);
+                }
+            }
+        }
+
+        // Order of the results, ties broken by the ID
+        Comparator<Task> order;
+        switch (query.sort != null ? query.sort : TaskQuery.Sort.ID){
+            case DEADLINE:
+                order = Comparator.comparingLong(Task::getDeadlineMS);
+                break;
+            case PRIORITY:
+                order = Comparator.comparingInt(Task::getPriority);
+                break;
+            case CREATED:
+                order = Comparator.comparingLong(Task::getDateCreatedMS);
+                break;
+            case RELEVANCE:
+                // Best match first, tasks which did not match the text last
+                order = Comparator.comparingDouble(task -> {
+                    TextIndex.Hit hit = hits.get(task.getId());
+                    return hit == null ? 0.0 : -hit.score;
+                });
+                break;
+            default:
+                order = Comparator.comparingLong(Task::getId);
+        }
+        if(query.descending)
+            order = order.reversed();
+        order = order.thenComparingLong(Task::getId);
+
+        // Keep the best offset + limit matches, worst one on top. Counted in
+        // long, a page past the largest int keeps all the matches
+        int offset = query.offset;
+        int keep = query.limit > 0 ? (int) Math.min((long) offset + query.limit, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+        PriorityQueue<Task> page = new PriorityQueue<>(order.reversed());
+        List<Task> all = new ArrayList<>();
+
+        for(Task task: source.get()){
+            if(!query.matchesFields(task))
+                continue;
+
+            if(query.text != null && hits.get(task.getId()) == null)
+                continue;
+
+            if(keep == Integer.MAX_VALUE){
+                all.add(task);
+            }else if(page.size() < keep){
+                page.add(task);
+            }else if(order.compare(task, page.peek()) < 0){
+                page.poll();
+                page.add(task);
+            }
+        }
+
+        if(keep != Integer.MAX_VALUE)
+            all.addAll(page);
+        all.sort(order);
+
+        if(offset >= all.size())
+            return new ArrayList<>();
+
+        return new ArrayList<>(all.subList(offset, all.size()));
     }
 }
@@ -0,0 +1,240 @@
+package common;
+
+import data.RawProject;
+import data.RawTask;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Packs a listing of tasks into frames of about a size budget, so a long
+ * listing is sent as a few large messages instead of one message per task.
+ * A frame is a RawProject which is sent as SETPROJECT, and the end of the
+ * listing is marked with RESPONSE. A frame of a board dump has the ID and
+ * the name of the board, a frame of any other listing has the ID LISTING,
+ * CHANGES or RESYNC. Pushed frames have the ID PUSH or REMOVED and no end
+ * marker. A frame of copies which have versions carries the versions in
+ * the URL of the project, separated by commas, in the order of the tasks.
+ * A REMOVED frame has no tasks, it carries the IDs of the removed tasks in
+ * the URL in the same way
+ * SETPROJECT... -> RESPONSE
+ */
+public class TaskFrames {
+    // Project ID of the frames which do not belong to a board
+    public static final long LISTING = -1;
+
+    // Project IDs of the frames of TaskChanges. Their name is the number of
+    // the last change they include. CHANGES frames have the changed tasks,
+    // RESYNC frames have all the tasks
+    public static final long CHANGES = -2;
+    public static final long RESYNC = -3;
+
+    // Project IDs of the frames which the server pushes to the subscribers
+    // of a board without a request. PUSH frames have the changed tasks,
+    // REMOVED frames have the IDs of the removed tasks
+    public static final long PUSH = -4;
+    public static final long REMOVED = -5;
+
+    // Default size budget of a frame, in bytes of JSON
+    public static final int FRAME_BYTES = 64 * 1024;
+
+    // JSON of a task without the text and the arrays
+    private static final int TASK_BYTES = 200;
+
+    // Digits and the separator of a version or an ID
+    private static final int VERSION_BYTES = 20;
+
+    /**
+     * Callback which sends one frame
+     */
+    public interface Sender {
+        void send(RawProject frame) throws IOException;
+    }
+
+    /**
+     * Check whether a received RawProject is a frame of a listing rather
+     * than a board
+     * @param project the received RawProject
+     * @return true if the tasks do not belong to a board
+     */
+    public static boolean isListing(RawProject project){
+        return project.projectId == LISTING;
+    }
+
+    /**
+     * Get the versions of the tasks of a received frame
+     * @param frame the frame
+     * @return versions in the order of the tasks, null if the frame has none
+     */
+    public static long[] versions(RawProject frame){
+        if(frame.projectURL == null || frame.projectURL.isEmpty() || frame.tasks == null)
+            return null;
+
+        String[] parts = frame.projectURL.split(",");
+        if(parts.length != frame.tasks.length)
+            return null;
+
+        long[] versions = new long[parts.length];
+        try{
+            for(int i = 0; i < parts.length; i++)
+                versions[i] = Long.parseLong(parts[i]);
+        }catch (NumberFormatException e){
+            return null;
+        }
+
+        return versions;
+    }
+
+    /**
+     * Get the IDs of the removed tasks of a received REMOVED frame
+     * @param frame the frame
+     * @return the IDs, empty if the frame has none
+     * @throws NumberFormatException If the frame is malformed
+     */
+    public static long[] removedIds(RawProject frame){
+        if(frame.projectURL == null || frame.projectURL.isEmpty())
+            return new long[0];
+
+        String[] parts = frame.projectURL.split(",");
+        long[] ids = new long[parts.length];
+        for(int i = 0; i < parts.length; i++)
+            ids[i] = Long.parseLong(parts[i]);
+
+        return ids;
+    }
+
+    /**
+     * Send the IDs of removed tasks in REMOVED frames, which have no tasks
+     * @param ids IDs of the removed tasks
+     * @param budget size budget of a frame in bytes. A frame always has at least one ID
+     * @param sender callback which sends a frame
+     * @return number of frames sent
+     * @throws IOException If sending fails
+     */
+    public static int sendRemoved(Iterable<Long> ids, int budget, Sender sender) throws IOException {
+        StringBuilder frame = new StringBuilder();
+        int frames = 0;
+
+        for(long id: ids){
+            if(frame.length() > 0 && frame.length() + VERSION_BYTES > budget){
+                sender.send(new RawProject(REMOVED, new RawTask[0], null, frame.toString()));
+                frames++;
+                frame.setLength(0);
+            }
+
+            if(frame.length() > 0)
+                frame.append(',');
+            frame.append(id);
+        }
+
+        if(frame.length() > 0){
+            sender.send(new RawProject(REMOVED, new RawTask[0], null, frame.toString()));
+            frames++;
+        }
+
+        return frames;
+    }
+
+    /**
+     * Estimate the size of a task in JSON. Counts the characters instead of
+     * encoding, it only has to be close enough for the budget
+     * @param task the task
+     * @return approximate size in bytes
+     */
+    static int estimateSize(RawTask task){
+        int size = TASK_BYTES;
+        if(task.title != null)
+            size += task.title.length();
+
+        if(task.description != null)
+            size += task.description.length();
+
+        if(task.assignedEmployees != null)
+            size += task.assignedEmployees.length * 20;
+
+        if(task.boards != null)
+            size += task.boards.length * 20;
+
+        return size;
+    }
+
+    /**
+     * Send the tasks in frames. At least one frame is sent, so the name of
+     * an empty board still arrives. The end marker is left to the caller
+     * @param projectId ID of the board, LISTING for other listings
+     * @param name name of the board, null for other listings
+     * @param tasks the tasks
+     * @param budget size budget of a frame in bytes. A frame always has at least one task
+     * @param sender callback which sends a frame
+     * @return number of frames sent
+     * @throws IOException If sending fails
+     */
+    public static int send(long projectId, String name, Iterable<RawTask> tasks, int budget, Sender sender) throws IOException {
+        return send(projectId, name, tasks, task -> task, null, budget, sender);
+    }
+
+    /**
+     * Send copies of the tasks in frames together with their versions, like
+     * send(). The end marker is left to the caller
+     * @param projectId ID of the board, LISTING for other listings
+     * @param name name of the board, null for other listings
+     * @param tasks the copies
+     * @param budget size budget of a frame in bytes. A frame always has at least one task
+     * @param sender callback which sends a frame
+     * @return number of frames sent
+     * @throws IOException If sending fails
+     */
+    public static int sendVersioned(long projectId, String name, Iterable<VersionedTask> tasks, int budget, Sender sender) throws IOException {
+        return send(projectId, name, tasks, copy -> copy.task, copy -> copy.version, budget, sender);
+    }
+
+    /**
+     * Send the tasks in frames
+     * @param projectId ID of the board, LISTING for other listings
+     * @param name name of the board, null for other listings
+     * @param tasks the tasks
+     * @param raw gets the RawTask of a task
+     * @param version gets the version of a task, null if the tasks have none
+     * @param budget size budget of a frame in bytes
+     * @param sender callback which sends a frame
+     * @return number of frames sent
+     * @throws IOException If sending fails
+     */
+    private static <T> int send(long projectId, String name, Iterable<T> tasks, Function<T, RawTask> raw,
+                                ToLongFunction<T> version, int budget, Sender sender) throws IOException {
+        List<RawTask> frame = new ArrayList<>();
+        StringBuilder versions = new StringBuilder();
+        int size = 0;
+        int frames = 0;
+
+        for(T entry: tasks){
+            RawTask task = raw.apply(entry);
+            int taskSize = estimateSize(task) + (version == null ? 0 : VERSION_BYTES);
+            if(!frame.isEmpty() && size + taskSize > budget){
+                sender.send(new RawProject(projectId, frame.toArray(new RawTask[0]), name, versions.toString()));
+                frames++;
+                frame.clear();
+                versions.setLength(0);
+                size = 0;
+            }
+
+            frame.add(task);
+            if(version != null){
+                if(versions.length() > 0)
+                    versions.append(',');
+                versions.append(version.applyAsLong(entry));
+            }
+            size += taskSize;
+        }
+
+        if(!frame.isEmpty() || frames == 0){
+            sender.send(new RawProject(projectId, frame.toArray(new RawTask[0]), name, versions.toString()));
+            frames++;
+        }
+
+        return frames;
+    }
+}
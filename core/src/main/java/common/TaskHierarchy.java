@@ -0,0 +1,235 @@
+package common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of the subtasks of a TaskContainer, built from masterTaskId. Every
+ * parent has its children and a rollup of them, which is kept up to date
+ * as the children change. A task has no parent if its masterTaskId is
+ * Task.NO_MASTER_TASK, negative or its own ID. Like TaskIndexes, the hierarchy has its own lock
+ * and the container updates it while it holds the lock of the task's stripe.
+ */
+class TaskHierarchy {
+    /**
+     * Values of a task with a parent at the time it was indexed
+     */
+    private static class Entry {
+        final Task task;
+        final long parent;
+        final boolean completed;
+        final long deadlineMS;
+
+        Entry(Task task){
+            this.task = task;
+            this.parent = task.getMasterTaskId();
+            this.completed = task.isCompleted();
+            this.deadlineMS = task.getDeadlineMS();
+        }
+    }
+
+    /**
+     * Children of a parent and their rollup
+     */
+    private static class Node {
+        final LongMap<Task> children = new LongMap<>();
+        int completed = 0;
+
+        // Number of children with each deadline, deadlines of 0 or less are not set
+        final TreeMap<Long, Integer> deadlines = new TreeMap<>();
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongMap<Entry> entries = new LongMap<>();
+    private final LongMap<Node> nodes = new LongMap<>();
+
+    /**
+     * Check whether a task has a parent
+     * @param id ID of the task
+     * @param masterTaskId master task ID of the task
+     * @return true if the master task ID points to another task
+     */
+    static boolean hasParent(long id, long masterTaskId){
+        return masterTaskId > Task.NO_MASTER_TASK && masterTaskId != id;
+    }
+
+    /**
+     * Add a task to the hierarchy, or move it if its parent, completion or deadline have changed
+     * @param task the task
+     */
+    void update(Task task){
+        lock.writeLock().lock();
+        try{
+            Entry previous = entries.get(task.getId());
+            if(previous != null)
+                unindex(previous);
+
+            if(!hasParent(task.getId(), task.getMasterTaskId())){
+                entries.remove(task.getId());
+                return;
+            }
+
+            Entry entry = new Entry(task);
+            entries.put(task.getId(), entry);
+
+            Node node = nodes.get(entry.parent);
+            if(node == null){
+                node = new Node();
+                nodes.put(entry.parent, node);
+            }
+
+            node.children.put(task.getId(), task);
+            if(entry.completed)
+                node.completed++;
+            if(entry.deadlineMS > 0)
+                node.deadlines.merge(entry.deadlineMS, 1, Integer::sum);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a task from the hierarchy. Its children keep pointing to it
+     * @param task the task
+     */
+    void remove(Task task){
+        lock.writeLock().lock();
+        try{
+            Entry entry = entries.get(task.getId());
+            if(entry == null || entry.task != task)
+                return;
+
+            unindex(entry);
+            entries.remove(task.getId());
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a task from the node of its parent. Caller must hold the write lock
+     * @param entry values of the task when it was indexed
+     */
+    private void unindex(Entry entry){
+        Node node = nodes.get(entry.parent);
+        if(node == null)
+            return;
+
+        node.children.remove(entry.task.getId());
+        if(entry.completed)
+            node.completed--;
+        if(entry.deadlineMS > 0 && node.deadlines.merge(entry.deadlineMS, -1, Integer::sum) == 0)
+            node.deadlines.remove(entry.deadlineMS);
+
+        if(node.children.isEmpty())
+            nodes.remove(entry.parent);
+    }
+
+    /**
+     * Get the direct subtasks of a task
+     * @param parentId ID of the task
+     * @return list of the subtasks
+     */
+    List<Task> children(long parentId){
+        lock.readLock().lock();
+        try{
+            Node node = nodes.get(parentId);
+            return node == null ? new ArrayList<>() : node.children.values();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get all the subtasks under a task, breadth first. Each task is visited
+     * once, so a cycle in the stored tasks does not loop forever
+     * @param rootId ID of the task
+     * @return list of the subtasks, without the task itself
+     */
+    List<Task> subtree(long rootId){
+        lock.readLock().lock();
+        try{
+            List<Task> out = new ArrayList<>();
+            LongMap<Boolean> visited = new LongMap<>();
+            Deque<Long> queue = new ArrayDeque<>();
+
+            visited.put(rootId, true);
+            queue.add(rootId);
+
+            while(!queue.isEmpty()){
+                Node node = nodes.get(queue.poll());
+                if(node == null)
+                    continue;
+
+                for(Task child: node.children.values()){
+                    if(visited.put(child.getId(), true) != null)
+                        continue;
+
+                    out.add(child);
+                    queue.add(child.getId());
+                }
+            }
+
+            return out;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the rollup of the direct subtasks of a task
+     * @param parentId ID of the task
+     * @return the rollup
+     */
+    TaskRollup rollup(long parentId){
+        lock.readLock().lock();
+        try{
+            Node node = nodes.get(parentId);
+            if(node == null)
+                return new TaskRollup(0, 0, 0);
+
+            Map.Entry<Long, Integer> earliest = node.deadlines.firstEntry();
+            return new TaskRollup(node.children.size(), node.completed, earliest == null ? 0 : earliest.getKey());
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Check whether making a task the subtask of another would create a
+     * cycle, that is whether the new parent is the task or under it
+     * @param id ID of the task
+     * @param masterTaskId ID of the new parent
+     * @return true if the change would create a cycle
+     */
+    boolean createsCycle(long id, long masterTaskId){
+        if(!hasParent(id, masterTaskId))
+            return false;
+
+        lock.readLock().lock();
+        try{
+            // Walk up from the new parent, at most once through every task
+            long current = masterTaskId;
+            for(int steps = 0; steps <= entries.size(); steps++){
+                if(current == id)
+                    return true;
+
+                Entry entry = entries.get(current);
+                if(entry == null)
+                    return false;
+
+                current = entry.parent;
+            }
+
+            // The ancestors already loop without reaching the task
+            return false;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary indexes of a TaskContainer: tasks by assignee, by deadline,
+ * by priority and by completion. The indexed values of every task are
+ * remembered, so a task can be moved in the indexes after its fields have
+ * already changed. The indexes have their own lock, the container calls
+ * them while it holds the lock of the task's stripe.
+ */
+class TaskIndexes {
+    /**
+     * Values of a task at the time it was indexed
+     */
+    private static class Entry {
+        final Task task;
+        final long[] assignees;
+        final long deadlineMS;
+        final int priority;
+        final boolean completed;
+
+        Entry(Task task, long[] assignees){
+            this.task = task;
+            this.deadlineMS = task.getDeadlineMS();
+            this.priority = task.getPriority();
+            this.completed = task.isCompleted();
+            this.assignees = assignees;
+        }
+
+        /**
+         * Get the IDs of the assignees of a task
+         * @param task the task
+         * @return array of the IDs
+         */
+        static long[] assigneesOf(Task task){
+            return task.getAssigneeIds();
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongMap<Entry> entries = new LongMap<>();
+
+    private final LongMap<LongMap<Task>> byAssignee = new LongMap<>();
+    private final NavigableMap<Long, LongMap<Task>> byDeadline = new TreeMap<>();
+    private final NavigableMap<Integer, LongMap<Task>> byPriority = new TreeMap<>();
+
+    // IDs of completed and open tasks. IDs outside the int range are kept in maps
+    private final BitSet completed = new BitSet();
+    private final BitSet open = new BitSet();
+    private final LongMap<Task> completedOther = new LongMap<>();
+    private final LongMap<Task> openOther = new LongMap<>();
+
+    /**
+     * Add a task to the indexes, or move it if its fields have changed
+     * @param task the task
+     */
+    void update(Task task){
+        update(task, true);
+    }
+
+    /**
+     * Add a task to the indexes, or move it if its fields have changed
+     * @param task the task
+     * @param assigneesChanged false if only the deadline, priority or
+     * completion of an indexed task changed, then the assignees are not copied again
+     */
+    void update(Task task, boolean assigneesChanged){
+        lock.writeLock().lock();
+        try{
+            Entry previous = entries.get(task.getId());
+            boolean keepAssignees = !assigneesChanged && previous != null && previous.task == task;
+
+            if(previous != null)
+                unindex(previous, !keepAssignees);
+
+            Entry entry = new Entry(task, keepAssignees ? previous.assignees : Entry.assigneesOf(task));
+            entries.put(task.getId(), entry);
+
+            if(!keepAssignees){
+                for(long assignee: entry.assignees)
+                    add(byAssignee.get(assignee), task, bucket -> byAssignee.put(assignee, bucket));
+            }
+            add(byDeadline.get(entry.deadlineMS), task, bucket -> byDeadline.put(entry.deadlineMS, bucket));
+            add(byPriority.get(entry.priority), task, bucket -> byPriority.put(entry.priority, bucket));
+            setCompletion(task.getId(), task, entry.completed);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a task from the indexes
+     * @param task the task
+     */
+    void remove(Task task){
+        lock.writeLock().lock();
+        try{
+            Entry entry = entries.get(task.getId());
+            if(entry == null || entry.task != task)
+                return;
+
+            unindex(entry, true);
+            entries.remove(task.getId());
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get the tasks assigned to a user
+     * @param userId ID of the user
+     * @return list of the tasks
+     */
+    List<Task> assignedTo(long userId){
+        lock.readLock().lock();
+        try{
+            LongMap<Task> bucket = byAssignee.get(userId);
+            return bucket == null ? new ArrayList<>() : bucket.values();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the tasks with a deadline in a range, sorted by the deadline
+     * @param fromMS start of the range, inclusive
+     * @param toMS end of the range, exclusive
+     * @return list of the tasks
+     */
+    List<Task> deadlineBetween(long fromMS, long toMS){
+        lock.readLock().lock();
+        try{
+            return flatten(byDeadline.subMap(fromMS, true, toMS, false).values());
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the tasks with a priority in a range, sorted by the priority
+     * @param from lowest priority, inclusive
+     * @param to highest priority, inclusive
+     * @return list of the tasks
+     */
+    List<Task> priorityBetween(int from, int to){
+        lock.readLock().lock();
+        try{
+            return flatten(byPriority.subMap(from, true, to, true).values());
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the completed or the open tasks
+     * @param isCompleted true for completed tasks, false for open ones
+     * @return list of the tasks
+     */
+    List<Task> withCompletion(boolean isCompleted){
+        lock.readLock().lock();
+        try{
+            BitSet ids = isCompleted ? completed : open;
+            List<Task> out = new ArrayList<>(ids.cardinality());
+
+            for(int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+                out.add(entries.get(id).task);
+
+            out.addAll((isCompleted ? completedOther : openOther).values());
+            return out;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the tasks assigned to a user
+     * @param userId ID of the user
+     * @return number of the tasks
+     */
+    int countAssignedTo(long userId){
+        lock.readLock().lock();
+        try{
+            LongMap<Task> bucket = byAssignee.get(userId);
+            return bucket == null ? 0 : bucket.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the tasks with a deadline in a range. Counting stops after
+     * the bound, which is enough for comparing with a smaller candidate
+     * @param fromMS start of the range, inclusive
+     * @param toMS end of the range, exclusive
+     * @param bound count after which counting stops
+     * @return number of the tasks, or a number larger than the bound
+     */
+    int countDeadlineBetween(long fromMS, long toMS, int bound){
+        lock.readLock().lock();
+        try{
+            return count(byDeadline.subMap(fromMS, true, toMS, false).values(), bound);
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the tasks with a priority in a range. Counting stops after the bound
+     * @param from lowest priority, inclusive
+     * @param to highest priority, inclusive
+     * @param bound count after which counting stops
+     * @return number of the tasks, or a number larger than the bound
+     */
+    int countPriorityBetween(int from, int to, int bound){
+        lock.readLock().lock();
+        try{
+            return count(byPriority.subMap(from, true, to, true).values(), bound);
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the completed or the open tasks
+     * @param isCompleted true for completed tasks, false for open ones
+     * @return number of the tasks
+     */
+    int countCompletion(boolean isCompleted){
+        lock.readLock().lock();
+        try{
+            return isCompleted
+                    ? completed.cardinality() + completedOther.size()
+                    : open.cardinality() + openOther.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the values of an entry from the indexes. Caller must hold the write lock
+     * @param entry values of the task when it was indexed
+     * @param assignees false to leave the task in the buckets of its assignees
+     */
+    private void unindex(Entry entry, boolean assignees){
+        long id = entry.task.getId();
+
+        if(assignees){
+            for(long assignee: entry.assignees){
+                if(removeFrom(byAssignee.get(assignee), id))
+                    byAssignee.remove(assignee);
+            }
+        }
+
+        if(removeFrom(byDeadline.get(entry.deadlineMS), id))
+            byDeadline.remove(entry.deadlineMS);
+
+        if(removeFrom(byPriority.get(entry.priority), id))
+            byPriority.remove(entry.priority);
+
+        if(id >= 0 && id <= Integer.MAX_VALUE){
+            completed.clear((int) id);
+            open.clear((int) id);
+        }else{
+            completedOther.remove(id);
+            openOther.remove(id);
+        }
+    }
+
+    /**
+     * Set the completion bit of a task. Caller must hold the write lock
+     * @param id ID of the task
+     * @param task the task
+     * @param isCompleted whether the task is completed
+     */
+    private void setCompletion(long id, Task task, boolean isCompleted){
+        if(id >= 0 && id <= Integer.MAX_VALUE)
+            (isCompleted ? completed : open).set((int) id);
+        else
+            (isCompleted ? completedOther : openOther).put(id, task);
+    }
+
+    /**
+     * Callback which stores a new bucket into its index
+     */
+    @FunctionalInterface
+    private interface BucketStore {
+        void store(LongMap<Task> bucket);
+    }
+
+    /**
+     * Add a task into a bucket, creating the bucket if needed
+     * @param bucket existing bucket, null if there is none
+     * @param task the task
+     * @param store callback which stores a new bucket
+     */
+    private static void add(LongMap<Task> bucket, Task task, BucketStore store){
+        if(bucket == null){
+            bucket = new LongMap<>();
+            store.store(bucket);
+        }
+
+        bucket.put(task.getId(), task);
+    }
+
+    /**
+     * Remove a task from a bucket
+     * @param bucket the bucket, may be null
+     * @param id ID of the task
+     * @return true if the bucket is empty afterwards and can be dropped
+     */
+    private static boolean removeFrom(LongMap<Task> bucket, long id){
+        if(bucket == null)
+            return false;
+
+        bucket.remove(id);
+        return bucket.isEmpty();
+    }
+
+    /**
+     * Count the tasks in buckets, stopping after the bound
+     * @param buckets the buckets
+     * @param bound count after which counting stops
+     * @return number of the tasks, or a number larger than the bound
+     */
+    private static int count(Collection<LongMap<Task>> buckets, int bound){
+        int count = 0;
+        for(LongMap<Task> bucket: buckets){
+            count += bucket.size();
+            if(count > bound)
+                break;
+        }
+
+        return count;
+    }
+
+    /**
+     * Join the tasks of buckets into one list
+     * @param buckets buckets in order
+     * @return list of the tasks
+     */
+    private static List<Task> flatten(Collection<LongMap<Task>> buckets){
+        List<Task> out = new ArrayList<>();
+        for(LongMap<Task> bucket: buckets)
+            out.addAll(bucket.values());
+
+        return out;
+    }
+}
@@ -0,0 +1,442 @@
+package common;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import data.RawTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Append-only log of the changes made to a TaskContainer. Every create,
+ * update and remove is written as one JSON line, so the cost of a write
+ * depends on the size of the change instead of the number of tasks.
+ * The journal holds the changes made after the last snapshot of the
+ * container. It is emptied when a new snapshot is written.
+ *
+ * Changes are written by a committer thread. Changes which are appended
+ * while the previous batch is being written are written together with one
+ * write and at most one fsync (group commit). When they are forced to the
+ * disk is decided by the FsyncPolicy.
+ */
+class TaskJournal implements Closeable {
+    /**
+     * Kinds of changes stored in the journal
+     */
+    enum Operation {
+        CREATE,
+        UPDATE,
+        REMOVE,
+        PATCH
+    }
+
+    /**
+     * Callback which applies a change read from the journal
+     */
+    @FunctionalInterface
+    interface Replayer {
+        void apply(Operation operation, long taskId, RawTask task, TaskPatch patch);
+    }
+
+    /**
+     * One line of the journal
+     */
+    private static class Entry {
+        Operation operation;
+        long taskId;
+        RawTask task;
+        TaskPatch patch;
+
+        Entry(Operation operation, long taskId, RawTask task, TaskPatch patch){
+            this.operation = operation;
+            this.taskId = taskId;
+            this.task = task;
+            this.patch = patch;
+        }
+    }
+
+    /**
+     * Future of whenDurable(), completed when the changes up to its target are on the disk
+     */
+    private static class Waiter {
+        final long target;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long target){
+            this.target = target;
+        }
+    }
+
+    private static final Gson gson = new Gson();
+    private final Path path;
+    private final FsyncPolicy policy;
+    private final long fsyncIntervalMS;
+    private FileChannel channel;
+    private Thread committer;
+
+    // Group commit, guarded by lock
+    private final Object lock = new Object();
+    private int size = 0;
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long appended = 0;
+    private long written = 0;
+    private long durable = 0;
+    private boolean closed = false;
+    private IOException failure;
+
+    // Futures of whenDurable(), in the order of their targets
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    /**
+     * Main constructor. Initializes the path of the journal file and the
+     * policy of forcing the changes to the disk
+     * @param path path to the journal file
+     * @param policy when the changes are forced to the disk
+     * @param fsyncIntervalMS interval of forcing for FsyncPolicy.INTERVAL, in MS
+     */
+    TaskJournal(@NotNull Path path, @NotNull FsyncPolicy policy, long fsyncIntervalMS){
+        this.path = path;
+        this.policy = policy;
+        this.fsyncIntervalMS = fsyncIntervalMS;
+    }
+
+    /**
+     * Apply the changes in the journal in the order they were made.
+     * A torn last line, left by a crash in the middle of a write, ends the replay
+     * @param replayer callback which applies the changes
+     * @return false if the journal ended with a torn line
+     * @throws IOException If file IO fails
+     */
+    boolean replay(Replayer replayer) throws IOException {
+        if(!Files.exists(path))
+            return true;
+
+        try(BufferedReader reader = Files.newBufferedReader(path)){
+            String line;
+            while((line = reader.readLine()) != null){
+                if(line.isBlank())
+                    continue;
+
+                Entry entry;
+                try{
+                    entry = gson.fromJson(line, Entry.class);
+                }catch (JsonParseException e){
+                    return false;
+                }
+
+                // A line which parses but misses its fields is as broken as a torn one
+                if(!isComplete(entry))
+                    return false;
+
+                replayer.apply(entry.operation, entry.taskId, entry.task, entry.patch);
+                size++;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check whether an entry read from the journal has the fields its
+     * operation needs
+     * @param entry the entry
+     * @return true if the entry can be applied
+     */
+    private static boolean isComplete(Entry entry){
+        if(entry == null || entry.operation == null)
+            return false;
+
+        switch (entry.operation){
+            case CREATE:
+            case UPDATE:
+                return entry.task != null && entry.task.taskId == entry.taskId;
+            case PATCH:
+                return entry.patch != null && entry.patch.taskId == entry.taskId;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Open the journal for appending and start the committer thread
+     * @throws IOException If file IO fails
+     */
+    void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        committer = new Thread(this::commitLoop, "journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Append a change to the journal. The change is written by the committer
+     * thread, call awaitDurable() to wait for it
+     * @param operation kind of the change
+     * @param taskId ID of the changed task
+     * @param task new version of the task, null for REMOVE
+     * @throws IOException If an earlier write has failed
+     */
+    void append(Operation operation, long taskId, RawTask task) throws IOException {
+        append(new Entry(operation, taskId, task, null));
+    }
+
+    /**
+     * Append a patch of a task to the journal. Only the patched fields are written
+     * @param patch the patch
+     * @throws IOException If an earlier write has failed
+     */
+    void appendPatch(TaskPatch patch) throws IOException {
+        append(new Entry(Operation.PATCH, patch.taskId, null, patch));
+    }
+
+    /**
+     * Queue a line for the committer thread
+     * @param entry the change
+     * @throws IOException If an earlier write has failed, or the journal is closed
+     */
+    private void append(Entry entry) throws IOException {
+        byte[] line = (gson.toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        synchronized (lock){
+            if(failure != null)
+                throw failure;
+
+            // Nothing would write the line
+            if(closed)
+                throw new IOException("Can not append to the journal " + path + ": it is closed");
+
+            pending.add(ByteBuffer.wrap(line));
+            appended++;
+            size++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the changes appended so far are on the disk. Returns at
+     * once unless the policy is FsyncPolicy.ALWAYS
+     * @throws IOException If writing the changes failed
+     */
+    void awaitDurable() throws IOException {
+        if(policy != FsyncPolicy.ALWAYS)
+            return;
+
+        synchronized (lock){
+            long target = appended;
+            while(durable < target && failure == null)
+                waitForCommitter();
+
+            if(failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Get a future which is completed when the changes appended so far are
+     * on the disk, so the caller does not have to wait for them. Completed
+     * at once unless the policy is FsyncPolicy.ALWAYS. The future is
+     * completed on the committer thread, so what depends on it must not block
+     * @return the future, failed if writing the changes failed
+     */
+    CompletableFuture<Void> whenDurable(){
+        if(policy != FsyncPolicy.ALWAYS)
+            return CompletableFuture.completedFuture(null);
+
+        synchronized (lock){
+            if(failure != null)
+                return CompletableFuture.failedFuture(failure);
+
+            if(durable >= appended)
+                return CompletableFuture.completedFuture(null);
+
+            Waiter waiter = new Waiter(appended);
+            waiters.add(waiter);
+            return waiter.future;
+        }
+    }
+
+    /**
+     * Complete the futures of whenDurable() whose changes are on the disk,
+     * or fail all of them if writing has failed. Caller must hold the lock
+     */
+    private void releaseWaiters(){
+        while(!waiters.isEmpty() && (failure != null || waiters.peek().target <= durable)){
+            Waiter waiter = waiters.poll();
+            if(failure != null)
+                waiter.future.completeExceptionally(failure);
+            else
+                waiter.future.complete(null);
+        }
+    }
+
+    /**
+     * Wait on the lock until the committer signals. Caller must hold the lock
+     * @throws InterruptedIOException If the thread was interrupted
+     */
+    private void waitForCommitter() throws InterruptedIOException {
+        try{
+            lock.wait();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the journal");
+        }
+    }
+
+    /**
+     * Body of the committer thread. Takes all the pending changes, writes them
+     * with one gathering write and forces them according to the policy
+     */
+    private void commitLoop(){
+        long lastForce = System.currentTimeMillis();
+
+        while(true){
+            List<ByteBuffer> batch;
+            long batchEnd;
+
+            synchronized (lock){
+                while(pending.isEmpty() && !closed){
+                    try{
+                        if(policy == FsyncPolicy.INTERVAL && written > durable)
+                            lock.wait(Math.max(1, fsyncIntervalMS - (System.currentTimeMillis() - lastForce)));
+                        else
+                            lock.wait();
+                    }catch (InterruptedException e){
+                        // Nothing writes the changes anymore, so the waiters must not wait
+                        failure = new InterruptedIOException("Committer of the journal " + path + " was interrupted");
+                        releaseWaiters();
+                        lock.notifyAll();
+                        return;
+                    }
+
+                    // Interval has passed without new changes
+                    if(policy == FsyncPolicy.INTERVAL && written > durable
+                            && System.currentTimeMillis() - lastForce >= fsyncIntervalMS)
+                        break;
+                }
+
+                if(pending.isEmpty() && closed)
+                    return;
+
+                batch = pending;
+                pending = new ArrayList<>();
+                batchEnd = appended;
+            }
+
+            boolean forced = false;
+
+            try{
+                // Write the whole batch
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                long remaining = 0;
+                for(ByteBuffer buffer: buffers)
+                    remaining += buffer.remaining();
+
+                while(remaining > 0)
+                    remaining -= channel.write(buffers);
+
+                // Force it to the disk
+                if(policy == FsyncPolicy.ALWAYS
+                        || (policy == FsyncPolicy.INTERVAL && System.currentTimeMillis() - lastForce >= fsyncIntervalMS)){
+                    channel.force(false);
+                    lastForce = System.currentTimeMillis();
+                    forced = true;
+                }
+            }catch (IOException e){
+                synchronized (lock){
+                    failure = e;
+                    releaseWaiters();
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            synchronized (lock){
+                written = batchEnd;
+                if(forced)
+                    durable = batchEnd;
+                releaseWaiters();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until the committer has written everything appended so far.
+     * Caller must hold the lock
+     * @throws IOException If writing the changes failed
+     */
+    private void drain() throws IOException {
+        while(written < appended && failure == null)
+            waitForCommitter();
+
+        if(failure != null)
+            throw failure;
+    }
+
+    /**
+     * Empty the journal. Called after a snapshot has been written
+     * @throws IOException If file IO fails
+     */
+    void truncate() throws IOException {
+        synchronized (lock){
+            drain();
+            channel.truncate(0);
+            channel.force(false);
+            durable = written;
+            size = 0;
+            releaseWaiters();
+        }
+    }
+
+    /**
+     * Get the number of changes in the journal
+     * @return number of changes since the last snapshot
+     */
+    int size(){
+        synchronized (lock){
+            return size;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel == null)
+            return;
+
+        synchronized (lock){
+            drain();
+            closed = true;
+            lock.notifyAll();
+        }
+
+        try{
+            committer.join();
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+
+        if(policy != FsyncPolicy.OS)
+            channel.force(false);
+
+        synchronized (lock){
+            durable = written;
+            releaseWaiters();
+        }
+
+        channel.close();
+    }
+}
@@ -0,0 +1,155 @@
+package common;
+
+import java.util.Arrays;
+
+/**
+ * Change of some fields of a task. Fields which are null are left as they
+ * are, assignees and boards are added and removed by their IDs. A patch is
+ * applied in place, so its cost depends on the size of the change instead
+ * of the size of the task. The fields are public, so the patch can be sent
+ * over the network as JSON like the Raw classes.
+ */
+public class TaskPatch {
+    public TaskRequest.Op op = TaskRequest.Op.PATCH;
+    public long taskId;
+    public String title;
+    public String description;
+    public Integer priority;
+    public Long deadlineMS;
+    public Boolean isCompleted;
+    public Long masterTaskId;
+    public long[] addAssignees;
+    public long[] removeAssignees;
+    public long[] addBoards;
+    public long[] removeBoards;
+
+    // Version of the task the patch is based on, null to patch any version
+    public Long expectedVersion;
+
+    /**
+     * Main constructor. Creates a patch which changes nothing
+     * @param taskId ID of the patched task
+     */
+    public TaskPatch(long taskId){
+        this.taskId = taskId;
+    }
+
+    /**
+     * Only apply the patch if the task is still at a version
+     * @param version version of the task the patch is based on
+     * @return this patch
+     */
+    public TaskPatch basedOn(long version){
+        this.expectedVersion = version;
+        return this;
+    }
+
+    /**
+     * Set the title
+     * @param title new title
+     * @return this patch
+     */
+    public TaskPatch title(String title){
+        this.title = title;
+        return this;
+    }
+
+    /**
+     * Set the description
+     * @param description new description
+     * @return this patch
+     */
+    public TaskPatch description(String description){
+        this.description = description;
+        return this;
+    }
+
+    /**
+     * Set the priority
+     * @param priority new priority
+     * @return this patch
+     */
+    public TaskPatch priority(int priority){
+        this.priority = priority;
+        return this;
+    }
+
+    /**
+     * Set the deadline
+     * @param deadlineMS new deadline, in MS from 1970
+     * @return this patch
+     */
+    public TaskPatch deadline(long deadlineMS){
+        this.deadlineMS = deadlineMS;
+        return this;
+    }
+
+    /**
+     * Set the completion status
+     * @param completed true if the task is completed
+     * @return this patch
+     */
+    public TaskPatch completed(boolean completed){
+        this.isCompleted = completed;
+        return this;
+    }
+
+    /**
+     * Set the master task
+     * @param masterTaskId ID of the master task, Task.NO_MASTER_TASK for none
+     * @return this patch
+     */
+    public TaskPatch masterTask(long masterTaskId){
+        this.masterTaskId = masterTaskId;
+        return this;
+    }
+
+    /**
+     * Assign the task to a user
+     * @param userId ID of the user
+     * @return this patch
+     */
+    public TaskPatch addAssignee(long userId){
+        addAssignees = append(addAssignees, userId);
+        return this;
+    }
+
+    /**
+     * Unassign the task from a user
+     * @param userId ID of the user
+     * @return this patch
+     */
+    public TaskPatch removeAssignee(long userId){
+        removeAssignees = append(removeAssignees, userId);
+        return this;
+    }
+
+    /**
+     * Add the task to a board
+     * @param boardId ID of the board
+     * @return this patch
+     */
+    public TaskPatch addBoard(long boardId){
+        addBoards = append(addBoards, boardId);
+        return this;
+    }
+
+    /**
+     * Remove the task from a board
+     * @param boardId ID of the board
+     * @return this patch
+     */
+    public TaskPatch removeBoard(long boardId){
+        removeBoards = append(removeBoards, boardId);
+        return this;
+    }
+
+    private static long[] append(long[] array, long value){
+        if(array == null)
+            return new long[]{value};
+
+        long[] out = Arrays.copyOf(array, array.length + 1);
+        out[array.length] = value;
+        return out;
+    }
+}
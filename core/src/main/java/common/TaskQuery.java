@@ -0,0 +1,159 @@
+package common;
+
+/**
+ * Query over the tasks of a TaskContainer: filters on board, assignee,
+ * completion, priority, deadline and searched text, a sort order and a page of the
+ * results. Filters which are null are not applied. The fields are public,
+ * so the query can be sent over the network as JSON like the Raw classes.
+ */
+public class TaskQuery {
+    /**
+     * Orders of the results. Ties are broken by the task ID
+     */
+    public enum Sort {
+        ID,
+        DEADLINE,
+        PRIORITY,
+        CREATED,
+        // Best match of the searched text first
+        RELEVANCE
+    }
+
+    public TaskRequest.Op op = TaskRequest.Op.QUERY;
+    public Long boardId;
+    public Long assigneeId;
+    public Boolean completed;
+    public Integer minPriority;
+    public Integer maxPriority;
+    public Long deadlineFromMS;
+    public Long deadlineToMS;
+    public String text;
+    public Sort sort = Sort.ID;
+    public boolean descending = false;
+    public int offset = 0;
+    public int limit = 0;
+
+    /**
+     * Main constructor. Creates a query which matches all the tasks
+     */
+    public TaskQuery(){
+    }
+
+    /**
+     * Only match the tasks in a board
+     * @param boardId ID of the board
+     * @return this query
+     */
+    public TaskQuery board(long boardId){
+        this.boardId = boardId;
+        return this;
+    }
+
+    /**
+     * Only match the tasks assigned to a user
+     * @param assigneeId ID of the user
+     * @return this query
+     */
+    public TaskQuery assignee(long assigneeId){
+        this.assigneeId = assigneeId;
+        return this;
+    }
+
+    /**
+     * Only match the completed or the open tasks
+     * @param completed true for completed tasks, false for open ones
+     * @return this query
+     */
+    public TaskQuery completed(boolean completed){
+        this.completed = completed;
+        return this;
+    }
+
+    /**
+     * Only match the tasks with a priority in a range
+     * @param min lowest priority, inclusive
+     * @param max highest priority, inclusive
+     * @return this query
+     */
+    public TaskQuery priority(int min, int max){
+        this.minPriority = min;
+        this.maxPriority = max;
+        return this;
+    }
+
+    /**
+     * Only match the tasks with a deadline in a range
+     * @param fromMS start of the range, inclusive
+     * @param toMS end of the range, exclusive
+     * @return this query
+     */
+    public TaskQuery deadline(long fromMS, long toMS){
+        this.deadlineFromMS = fromMS;
+        this.deadlineToMS = toMS;
+        return this;
+    }
+
+    /**
+     * Only match the tasks whose title or description contains any of the words of a text
+     * @param text the searched words
+     * @return this query
+     */
+    public TaskQuery text(String text){
+        this.text = text;
+        return this;
+    }
+
+    /**
+     * Set the order of the results
+     * @param sort field by which the results are sorted
+     * @param descending true for the largest values first
+     * @return this query
+     */
+    public TaskQuery sortBy(Sort sort, boolean descending){
+        this.sort = sort;
+        this.descending = descending;
+        return this;
+    }
+
+    /**
+     * Set the page of the results
+     * @param offset number of results which are skipped
+     * @param limit maximum number of results, 0 for all
+     * @return this query
+     */
+    public TaskQuery page(int offset, int limit){
+        this.offset = offset;
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Check whether a task passes the filters other than the searched text
+     * @param task the task
+     * @return true if the task passes the filters
+     */
+    boolean matchesFields(Task task){
+        if(boardId != null && !task.isInBoard(boardId))
+            return false;
+
+        if(completed != null && task.isCompleted() != completed)
+            return false;
+
+        if(minPriority != null && task.getPriority() < minPriority)
+            return false;
+
+        if(maxPriority != null && task.getPriority() > maxPriority)
+            return false;
+
+        if(deadlineFromMS != null && task.getDeadlineMS() < deadlineFromMS)
+            return false;
+
+        if(deadlineToMS != null && task.getDeadlineMS() >= deadlineToMS)
+            return false;
+
+        if(assigneeId != null && !task.isAssignedTo(assigneeId))
+            return false;
+
+        return true;
+    }
+}
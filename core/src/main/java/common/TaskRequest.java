@@ -0,0 +1,76 @@
+package common;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * The requests which are sent in the payload of GETSERVERTASKLIST. Every
+ * request has the op field, which names its kind, so the server does not
+ * have to guess the kind from the other fields.
+ */
+public final class TaskRequest {
+    /**
+     * Kinds of the requests, with their classes and the fields a request
+     * of the kind must have
+     */
+    public enum Op {
+        QUERY(TaskQuery.class),
+        PATCH(TaskPatch.class, "taskId"),
+        UPDATE(TaskUpdate.class, "task", "expectedVersion"),
+        SUBSCRIBE(BoardSubscription.class, "boardId", "subscribed"),
+        CHANGES(TaskChanges.Request.class, "changesSince"),
+        SUBTASKS(SubtaskRequest.class, "taskId");
+
+        private final Class<?> type;
+        private final String[] required;
+
+        Op(Class<?> type, String... required){
+            this.type = type;
+            this.required = required;
+        }
+    }
+
+    private static final Gson gson = new Gson();
+
+    private TaskRequest(){
+    }
+
+    /**
+     * Convert a request received as a generic JSON object to the class of
+     * its op
+     * @param source request, or an object which has the fields of one
+     * @return TaskQuery, TaskPatch, TaskUpdate, BoardSubscription, TaskChanges.Request or SubtaskRequest
+     * @throws IllegalArgumentException if the op is missing or unknown, or the request is malformed
+     */
+    public static Object parse(Object source){
+        JsonElement tree = gson.toJsonTree(source);
+        if(!tree.isJsonObject())
+            throw new IllegalArgumentException("Request is not an object");
+
+        JsonObject object = tree.getAsJsonObject();
+        JsonElement name = object.get("op");
+        if(name == null || !name.isJsonPrimitive())
+            throw new IllegalArgumentException("Request has no op");
+
+        Op op;
+        try{
+            op = Op.valueOf(name.getAsString());
+        }catch (IllegalArgumentException e){
+            throw new IllegalArgumentException("Unknown request op " + name.getAsString());
+        }
+
+        for(String field: op.required){
+            if(!object.has(field) || object.get(field).isJsonNull())
+                throw new IllegalArgumentException("Request " + op + " has no " + field);
+        }
+
+        try{
+            return gson.fromJson(object, op.type);
+        }catch (JsonParseException | IllegalStateException | NumberFormatException e){
+            // Field of the wrong type
+            throw new IllegalArgumentException("Malformed request " + op + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package common;
+
+/**
+ * Summary of the direct subtasks of a task: how many there are, how many
+ * of them are completed and the earliest deadline among them
+ */
+public class TaskRollup {
+    private final int childCount;
+    private final int completedCount;
+    private final long earliestDeadlineMS;
+
+    /**
+     * Main constructor
+     * @param childCount number of the subtasks
+     * @param completedCount number of the completed subtasks
+     * @param earliestDeadlineMS earliest deadline of the subtasks, 0 if none has a deadline
+     */
+    public TaskRollup(int childCount, int completedCount, long earliestDeadlineMS){
+        this.childCount = childCount;
+        this.completedCount = completedCount;
+        this.earliestDeadlineMS = earliestDeadlineMS;
+    }
+
+    /**
+     * Method for getting the number of the subtasks
+     * @return number of the subtasks
+     */
+    public int getChildCount() {
+        return childCount;
+    }
+
+    /**
+     * Method for getting the number of the completed subtasks
+     * @return number of the completed subtasks
+     */
+    public int getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Method for getting the earliest deadline of the subtasks
+     * @return earliest deadline in MS from 1970, 0 if no subtask has a deadline
+     */
+    public long getEarliestDeadlineMS() {
+        return earliestDeadlineMS;
+    }
+}
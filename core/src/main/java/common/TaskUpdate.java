@@ -0,0 +1,26 @@
+package common;
+
+import data.RawTask;
+
+/**
+ * Request to replace a task with a new version, only if the task has not
+ * changed since the version the client has seen. The fields are public, so
+ * it can be sent over the network as JSON like the Raw classes.
+ */
+public class TaskUpdate {
+    public TaskRequest.Op op = TaskRequest.Op.UPDATE;
+    public RawTask task;
+
+    // Version of the task the update is based on
+    public long expectedVersion;
+
+    /**
+     * Main constructor
+     * @param task the new version of the task
+     * @param expectedVersion version of the task the update is based on
+     */
+    public TaskUpdate(RawTask task, long expectedVersion){
+        this.task = task;
+        this.expectedVersion = expectedVersion;
+    }
+}
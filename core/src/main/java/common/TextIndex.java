@@ -0,0 +1,396 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the titles and descriptions of tasks.
+ * Text is split into lower case words of letters and digits, every word
+ * has a posting list of the tasks which contain it. Results are ranked with
+ * BM25, words of the title count twice. Like TaskIndexes, the index has its
+ * own lock and the container updates it while it holds the lock of the
+ * task's stripe.
+ */
+class TextIndex {
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Words of the title are counted this many times
+    private static final int TITLE_WEIGHT = 2;
+
+    /**
+     * Words of a task at the time it was indexed
+     */
+    private static class Document {
+        final Task task;
+        final String[] terms;
+        final int[] frequencies;
+        final int length;
+
+        // Position in the score table, live is false once the task is removed or indexed again
+        int slot;
+        boolean live = true;
+
+        Document(Task task){
+            this.task = task;
+
+            Map<String, Integer> counts = new HashMap<>();
+            int total = 0;
+            for(int i = 0; i < TITLE_WEIGHT; i++)
+                total += count(task.getTitle(), counts);
+            total += count(task.getDescription(), counts);
+
+            terms = counts.keySet().toArray(new String[0]);
+            frequencies = new int[terms.length];
+            for(int i = 0; i < terms.length; i++)
+                frequencies[i] = counts.get(terms[i]);
+
+            length = total;
+        }
+
+        private static int count(String text, Map<String, Integer> counts){
+            List<String> words = tokenize(text);
+            for(String word: words)
+                counts.merge(word, 1, Integer::sum);
+
+            return words.size();
+        }
+    }
+
+    /**
+     * Tasks which contain a word, with the number of occurrences. Removed
+     * tasks stay in the list until half of it is dead, then it is compacted
+     */
+    private static class Posting {
+        Document[] documents = new Document[4];
+        int[] frequencies = new int[4];
+        int size = 0;
+        int dead = 0;
+
+        void add(Document document, int frequency){
+            if(size == documents.length){
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+
+            documents[size] = document;
+            frequencies[size] = frequency;
+            size++;
+        }
+
+        void died(){
+            dead++;
+            if(dead * 2 <= size)
+                return;
+
+            int kept = 0;
+            for(int i = 0; i < size; i++){
+                if(documents[i].live){
+                    documents[kept] = documents[i];
+                    frequencies[kept] = frequencies[i];
+                    kept++;
+                }
+            }
+
+            Arrays.fill(documents, kept, size, null);
+            size = kept;
+            dead = 0;
+        }
+
+        int live(){
+            return size - dead;
+        }
+    }
+
+    /**
+     * Task found by a search, with its score
+     */
+    static class Hit {
+        final Task task;
+        final double score;
+
+        Hit(Task task, double score){
+            this.task = task;
+            this.score = score;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongMap<Document> documents = new LongMap<>();
+    private final Map<String, Posting> postings = new HashMap<>();
+    private long totalLength = 0;
+
+    // Slots of the score table, freed slots are reused
+    private Document[] slots = new Document[16];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+
+    /**
+     * Split text into lower case words of letters and digits
+     * @param text the text, may be null
+     * @return list of the words
+     */
+    static List<String> tokenize(String text){
+        List<String> words = new ArrayList<>();
+        if(text == null)
+            return words;
+
+        int start = -1;
+        for(int i = 0; i <= text.length(); i++){
+            boolean wordCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+            if(wordCharacter && start == -1){
+                start = i;
+            }else if(!wordCharacter && start != -1){
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Add a task to the index, or index it again if its text has changed
+     * @param task the task
+     */
+    void update(Task task){
+        Document document = new Document(task);
+
+        lock.writeLock().lock();
+        try{
+            Document previous = documents.get(task.getId());
+            if(previous != null)
+                unindex(previous);
+
+            documents.put(task.getId(), document);
+            totalLength += document.length;
+
+            // Take a slot
+            if(freeCount > 0){
+                document.slot = freeSlots[--freeCount];
+            }else{
+                if(slotCount == slots.length)
+                    slots = Arrays.copyOf(slots, slotCount * 2);
+                document.slot = slotCount++;
+            }
+            slots[document.slot] = document;
+
+            for(int i = 0; i < document.terms.length; i++){
+                Posting posting = postings.get(document.terms[i]);
+                if(posting == null){
+                    posting = new Posting();
+                    postings.put(document.terms[i], posting);
+                }
+
+                posting.add(document, document.frequencies[i]);
+            }
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a task from the index
+     * @param task the task
+     */
+    void remove(Task task){
+        lock.writeLock().lock();
+        try{
+            Document document = documents.get(task.getId());
+            if(document == null || document.task != task)
+                return;
+
+            unindex(document);
+            documents.remove(task.getId());
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Mark a document dead in its postings and free its slot. Caller must hold the write lock
+     * @param document the document
+     */
+    private void unindex(Document document){
+        document.live = false;
+        totalLength -= document.length;
+
+        for(String term: document.terms){
+            Posting posting = postings.get(term);
+            posting.died();
+            if(posting.live() == 0)
+                postings.remove(term);
+        }
+
+        slots[document.slot] = null;
+        if(freeCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = document.slot;
+    }
+
+    /**
+     * Scores of the documents which contain any of the searched words. Few
+     * matches are summed in a map, many in an array indexed by the slot
+     */
+    private static class Scores {
+        final double[] bySlot;
+        final LongMap<double[]> sparse;
+        final int[] touched;
+        int count = 0;
+
+        Scores(int slots, int capacity){
+            boolean dense = capacity * 16L > slots;
+            bySlot = dense ? new double[slots] : null;
+            sparse = dense ? null : new LongMap<>();
+            touched = new int[capacity];
+        }
+
+        void add(int slot, double score){
+            if(bySlot != null){
+                // Scores are positive, so zero marks a slot which is not touched yet
+                if(bySlot[slot] == 0)
+                    touched[count++] = slot;
+                bySlot[slot] += score;
+                return;
+            }
+
+            double[] sum = sparse.get(slot);
+            if(sum == null){
+                sparse.put(slot, new double[]{score});
+                touched[count++] = slot;
+            }else{
+                sum[0] += score;
+            }
+        }
+
+        double get(int slot){
+            return bySlot != null ? bySlot[slot] : sparse.get(slot)[0];
+        }
+    }
+
+    /**
+     * Sum the BM25 scores of the searched words. Caller must hold the read lock
+     * @param text the searched text
+     * @return the scores, null if nothing matches
+     */
+    private Scores score(String text){
+        List<Posting> matched = new ArrayList<>();
+        int capacity = 0;
+
+        for(String term: new LinkedHashSet<>(tokenize(text))){
+            Posting posting = postings.get(term);
+            if(posting != null){
+                matched.add(posting);
+                capacity += posting.size;
+            }
+        }
+
+        int count = documents.size();
+        if(matched.isEmpty() || count == 0)
+            return null;
+
+        double averageLength = Math.max(1.0, totalLength / (double) count);
+        Scores scores = new Scores(slotCount, Math.min(capacity, slotCount));
+
+        for(Posting posting: matched){
+            double idf = Math.log(1 + (count - posting.live() + 0.5) / (posting.live() + 0.5));
+
+            for(int i = 0; i < posting.size; i++){
+                Document document = posting.documents[i];
+                if(!document.live)
+                    continue;
+
+                int frequency = posting.frequencies[i];
+                double score = idf * frequency * (K1 + 1)
+                        / (frequency + K1 * (1 - B + B * document.length / averageLength));
+
+                scores.add(document.slot, score);
+            }
+        }
+
+        return scores;
+    }
+
+    /**
+     * Find the tasks which contain any of the words of the text
+     * @param text the searched text
+     * @return the tasks with their scores, in no particular order
+     */
+    List<Hit> search(String text){
+        lock.readLock().lock();
+        try{
+            Scores scores = score(text);
+            if(scores == null)
+                return new ArrayList<>();
+
+            List<Hit> hits = new ArrayList<>(scores.count);
+            for(int i = 0; i < scores.count; i++){
+                int slot = scores.touched[i];
+                hits.add(new Hit(slots[slot].task, scores.get(slot)));
+            }
+
+            return hits;
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the best matching tasks
+     * @param text the searched text
+     * @param limit maximum number of results
+     * @return the tasks, best match first, ties by the ID
+     */
+    List<Task> search(String text, int limit){
+        // Worst match on top, ties broken by the ID
+        Comparator<Hit> worstFirst = Comparator.<Hit>comparingDouble(hit -> hit.score)
+                .thenComparing(Comparator.<Hit>comparingLong(hit -> hit.task.getId()).reversed());
+        PriorityQueue<Hit> best = new PriorityQueue<>(worstFirst);
+
+        lock.readLock().lock();
+        try{
+            Scores scores = score(text);
+            if(scores == null)
+                return new ArrayList<>();
+
+            for(int i = 0; i < scores.count; i++){
+                int slot = scores.touched[i];
+                double score = scores.get(slot);
+
+                // Most of the hits lose to the worst kept one without creating a Hit
+                if(best.size() == limit && score < best.peek().score)
+                    continue;
+
+                Hit hit = new Hit(slots[slot].task, score);
+                if(best.size() < limit){
+                    best.add(hit);
+                }else if(worstFirst.compare(best.peek(), hit) < 0){
+                    best.poll();
+                    best.add(hit);
+                }
+            }
+        }finally {
+            lock.readLock().unlock();
+        }
+
+        List<Task> out = new ArrayList<>(best.size());
+        while(!best.isEmpty())
+            out.add(best.poll().task);
+
+        // Worst came out first
+        Collections.reverse(out);
+        return out;
+    }
+}
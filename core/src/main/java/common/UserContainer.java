@@ -1,6 +1,5 @@
 package common;
 
-import com.google.gson.Gson;
 import data.RawUser;
 import org.jetbrains.annotations.NotNull;
 
@@ -11,18 +10,26 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * Class for containing Users.
+ * Class for containing Users. The container can be used by many threads
+ * at once. Users are kept in concurrent maps, so lookups do not lock and
+ * changes only wait for a save which is running.
  */
 public class UserContainer {
-    private final List<User> users;
-    private static final Gson gson = new Gson();
+    private final Map<Long, User> users = new ConcurrentHashMap<>();
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
     private Path inpath;
-    private long order = 0;
-    private final ContainerHelper<User> container;
+    private final AtomicLong order = new AtomicLong();
+    private final ContainerHelper<User, RawUser> container;
+
+    // Shared by the changes, exclusive for saving
+    private final ReentrantReadWriteLock checkpoint = new ReentrantReadWriteLock();
 
     /*
      * Adds the default user with no permissions, automatically logged in when client connects
@@ -36,9 +43,8 @@ public class UserContainer {
      * Default constructor. Initializes the array of users.
      */
     public UserContainer(){
-        users = new ArrayList<>();
         //createDefaultUser();
-        container = new ContainerHelper<>(users);
+        container = newHelper();
     }
 
     /**
@@ -47,9 +53,10 @@ public class UserContainer {
      * @param users
      */
     public UserContainer(List<User> users){
-        this.users = users;
         //createDefaultUser();
-        container = new ContainerHelper<>(users);
+        container = newHelper();
+        for(User user: users)
+            insert(user);
     }
 
     /**
@@ -59,9 +66,8 @@ public class UserContainer {
      * @throws IOException If file IO fails
      */
     public UserContainer(String path) throws IOException {
-        users = new ArrayList<>();
         //createDefaultUser();
-        container = new ContainerHelper<>(users);
+        container = newHelper();
         importUsers(path);
     }
 
@@ -72,12 +78,43 @@ public class UserContainer {
      * @throws IOException If file IO fails
      */
     public UserContainer(@NotNull Path path) throws IOException {
-        users = new ArrayList<>();
         //createDefaultUser();
-        container = new ContainerHelper<>(users);
+        container = newHelper();
         importUsers(path);
     }
 
+    /**
+     * Create the helper which saves the users
+     * @return the helper
+     */
+    private ContainerHelper<User, RawUser> newHelper(){
+        return new ContainerHelper<>(users::values, this::insert, RawUser.class, User::new, User::getRawUser, User::getId, BinaryCodec.USER);
+    }
+
+    /**
+     * Add a user to the maps
+     * @param user user to be added
+     */
+    private void insert(User user){
+        users.put(user.getId(), user);
+        if(user.getName() != null)
+            usersByName.put(user.getName(), user);
+    }
+
+    /**
+     * Run a change of the users. Keeps saving from starting in the middle
+     * of the change
+     * @param change the change
+     */
+    private void change(Runnable change){
+        checkpoint.readLock().lock();
+        try{
+            change.run();
+        }finally {
+            checkpoint.readLock().unlock();
+        }
+    }
+
     /**
      * Imports thasks from given paths. The path
      * has to point to a directory/file. The tasks have to be in JSON
@@ -98,30 +135,49 @@ public class UserContainer {
      */
     private void importUsers(Path path) throws IOException {
         /* Fill the list */
-        container.importItems(path, json -> new User(gson.fromJson(json, RawUser.class)));
+        container.importItems(path);
 
         /* Determine the order */
         // Get the biggest ID
         long biggestUserId = -1;
-        for(User user: users){
+        for(User user: users.values()){
             if(user.getId() > biggestUserId)
                 biggestUserId = user.getId();
         }
 
         // Set new order. This ensures that old Task IDs don't get overwritten
-        order = biggestUserId + 1;
+        order.set(biggestUserId + 1);
 
         // Set the save path
         inpath = path;
     }
 
+    /**
+     * Set the format in which the users are saved. Imported files are read
+     * in whichever format they are in, so they are converted on the next save
+     * @param format new storage format
+     */
+    public void setStorageFormat(StorageFormat format){
+        checkpoint.writeLock().lock();
+        try{
+            container.setFormat(format);
+        }finally {
+            checkpoint.writeLock().unlock();
+        }
+    }
+
     /**
      * Export stored users into a directory, specified by the path
      * @param path path to the save directory
      * @throws IOException If file IO fails
      */
     public void saveUsers(Path path) throws IOException {
-        container.exportItems(path, user -> gson.toJson(user.getRawUser()));
+        checkpoint.writeLock().lock();
+        try{
+            container.exportItems(path);
+        }finally {
+            checkpoint.writeLock().unlock();
+        }
     }
 
     /**
@@ -141,28 +197,69 @@ public class UserContainer {
         saveUsers(inpath);
     }
 
+    /**
+     * Claim the name of a new user. Checking and taking the name is one
+     * step, so two sessions can not register the same name at once
+     * @param newUser the new user
+     * @throws IllegalArgumentException If a user with the name already exists
+     */
+    private void claimName(User newUser){
+        if(newUser.getName() != null && usersByName.putIfAbsent(newUser.getName(), newUser) != null)
+            throw new IllegalArgumentException("User with given name already exists");
+    }
+
     /**
      * Method for adding a new user to the container
      * @param newUser user to be added
+     * @throws IllegalArgumentException If a user with the ID or the name already exists
      */
     public void addUser(User newUser) {
-        // Check if user already exists!
-        User testUser = getUser(newUser.getId());
-        if(testUser != null)
-            throw new IllegalArgumentException("User with given ID already exists");
+        change(() -> {
+            claimName(newUser);
 
-        users.add(newUser);
+            // Check if user already exists!
+            if(users.putIfAbsent(newUser.getId(), newUser) != null){
+                usersByName.remove(newUser.getName(), newUser);
+                throw new IllegalArgumentException("User with given ID already exists");
+            }
+
+            container.markDirty(newUser);
+        });
+    }
+
+    /**
+     * Method for recording a change made to a user in place, through its
+     * setters. The user is written on the next save
+     * @param user the changed user
+     */
+    public void markChanged(User user){
+        change(() -> container.markDirty(user));
+    }
+
+    /**
+     * Add a newly created user to the container
+     * @param newUser the created user
+     * @return the created user
+     * @throws IllegalArgumentException If a user with the name already exists
+     */
+    private User create(User newUser){
+        change(() -> {
+            claimName(newUser);
+            users.put(newUser.getId(), newUser);
+            container.markDirty(newUser);
+        });
+
+        return newUser;
     }
 
     /**
      * Method for creating a new user into the container
      * @param name name of the new user
      * @return the created user
+     * @throws IllegalArgumentException If a user with the name already exists
      */
     public User newUser(String name){
-        User newUser = new User(name, order++, null, null);
-        users.add(newUser);
-        return newUser;
+        return create(new User(name, order.getAndIncrement(), null, null));
     }
 
     /**
@@ -171,22 +268,20 @@ public class UserContainer {
      * @param hash password hash of the new user
      * @param salt password hash salt of the new user
      * @return the created user
+     * @throws IllegalArgumentException If a user with the name already exists
      */
     public User newUser(String name, byte[] hash, byte[] salt){
-        User newUser = new User(name, order++, hash, salt);
-        users.add(newUser);
-        return newUser;
+        return create(new User(name, order.getAndIncrement(), hash, salt));
     }
 
     /**
      * Method for creating a new user into the container
      * @param user RawUser object
      * @return the created user
+     * @throws IllegalArgumentException If a user with the name already exists
      */
     public User newUser(RawUser user){
-        User newUser = new User(user);
-        users.add(newUser);
-        return newUser;
+        return create(new User(user));
     }
 
     /**
@@ -195,11 +290,7 @@ public class UserContainer {
      * @return the user with given ID. Is null if not found
      */
     public User getUser(long id){
-        for(User user: users){
-            if(user.getId() == id)
-                return user;
-        }
-        return null;
+        return users.get(id);
     }
 
     /**
@@ -208,10 +299,9 @@ public class UserContainer {
      * @return the user with given name. Is null if not found
      */
     public User getUser(String name){
-        for(User user: users){
-            if(user.getName().equals(name))
-                return user;
-        }
-        return null;
+        if(name == null)
+            return null;
+
+        return usersByName.get(name);
     }
 }
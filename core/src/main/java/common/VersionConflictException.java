@@ -0,0 +1,32 @@
+package common;
+
+public class VersionConflictException extends RuntimeException {
+    private final long taskId;
+    private final long expectedVersion;
+    private final long currentVersion;
+
+    /**
+     * Main constructor
+     * @param taskId ID of the task
+     * @param expectedVersion version the change was based on
+     * @param currentVersion version of the task in the container, -1 if the task does not exist
+     */
+    public VersionConflictException(long taskId, long expectedVersion, long currentVersion) {
+        super("Task " + taskId + " is at version " + currentVersion + ", the change was based on version " + expectedVersion);
+        this.taskId = taskId;
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+    }
+
+    public long getTaskId() {
+        return taskId;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
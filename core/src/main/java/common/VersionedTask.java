@@ -0,0 +1,23 @@
+package common;
+
+import data.RawTask;
+
+/**
+ * Copy of a task together with the version the task had when it was
+ * copied. The version is sent to the clients with the copy, so they can
+ * base their changes on it.
+ */
+public class VersionedTask {
+    public final RawTask task;
+    public final long version;
+
+    /**
+     * Main constructor
+     * @param task the copy
+     * @param version version of the task when it was copied
+     */
+    public VersionedTask(RawTask task, long version){
+        this.task = task;
+        this.version = version;
+    }
+}
@@ -0,0 +1,136 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread which serves many client connections. Connections are
+ * accepted elsewhere and handed over with register().
+ */
+class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<NioConnection> registrations = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Main constructor. Opens the selector
+     * @throws IOException If the selector can not be opened
+     */
+    EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Hand a connection over to this event loop. Can be called from any thread
+     * @param connection connection to be served
+     */
+    void register(NioConnection connection){
+        registrations.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on this event loop, after the next select. Can be called
+     * from any thread
+     * @param task the task, it must not block
+     */
+    void execute(Runnable task){
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Run the tasks which were handed over since last select
+     */
+    private void runPending(){
+        Runnable task;
+        while((task = tasks.poll()) != null){
+            try{
+                task.run();
+            }catch (RuntimeException e){
+                System.out.println("Event loop task failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Register the connections which were handed over since last select
+     */
+    private void registerPending(){
+        NioConnection connection;
+        while((connection = registrations.poll()) != null){
+            try{
+                connection.register(selector);
+            }catch (IOException e){
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Serve the ready key. Closes the connection if the client disconnected
+     * or if handling its message failed
+     * @param key selected key
+     */
+    private void serve(SelectionKey key){
+        NioConnection connection = (NioConnection) key.attachment();
+
+        try{
+            if(key.isValid() && key.isReadable() && !connection.read()){
+                System.out.println("client disconnected");
+                connection.close();
+                return;
+            }
+
+            if(key.isValid() && key.isWritable())
+                connection.write();
+
+        }catch (IOException | RuntimeException e){
+            System.out.println("Connection failed: " + e.getMessage());
+            connection.close();
+        }
+    }
+
+    /**
+     * Close the selector. Makes the loop end
+     */
+    void close(){
+        try{
+            selector.close();
+        }catch (IOException e){
+            System.out.println("Failed to close selector: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        while(selector.isOpen()){
+            try{
+                selector.select();
+            }catch (ClosedSelectorException e){
+                // Closed while selecting
+                break;
+            }catch (IOException e){
+                throw new RuntimeException("Select failed", e);
+            }
+
+            if(!selector.isOpen())
+                break;
+
+            registerPending();
+            runPending();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()){
+                SelectionKey key = keys.next();
+                keys.remove();
+                serve(key);
+            }
+        }
+    }
+}
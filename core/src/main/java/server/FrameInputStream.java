@@ -0,0 +1,92 @@
+package server;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * InputStream over the bytes which have arrived from a non-blocking channel
+ * but have not been decoded yet. Reading past the received bytes reports end
+ * of stream, so DataInputStream throws EOFException on an incomplete frame.
+ * The decoder marks the stream before a frame and resets it when the frame
+ * turns out to be incomplete.
+ */
+class FrameInputStream extends InputStream {
+    private byte[] data = new byte[8192];
+    private int position = 0;
+    private int end = 0;
+    private int markPosition = 0;
+
+    /**
+     * Read whatever is available from the channel into the stream
+     * @param channel non-blocking channel
+     * @return number of bytes read, -1 if the channel has reached end of stream
+     * @throws IOException If channel IO fails
+     */
+    int fill(ReadableByteChannel channel) throws IOException {
+        // Drop the bytes which are already decoded
+        if(position > 0){
+            System.arraycopy(data, position, data, 0, end - position);
+            end -= position;
+            markPosition = Math.max(0, markPosition - position);
+            position = 0;
+        }
+
+        // Grow if a frame does not fit into the buffer
+        if(end == data.length){
+            byte[] grown = new byte[data.length * 2];
+            System.arraycopy(data, 0, grown, 0, end);
+            data = grown;
+        }
+
+        int count = channel.read(ByteBuffer.wrap(data, end, data.length - end));
+        if(count > 0)
+            end += count;
+
+        return count;
+    }
+
+    @Override
+    public int read() {
+        if(position >= end)
+            return -1;
+
+        return data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if(len == 0)
+            return 0;
+
+        if(position >= end)
+            return -1;
+
+        int count = Math.min(len, end - position);
+        System.arraycopy(data, position, b, off, count);
+        position += count;
+
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return end - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        markPosition = position;
+    }
+
+    @Override
+    public void reset() {
+        position = markPosition;
+    }
+}
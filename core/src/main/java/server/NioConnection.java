@@ -0,0 +1,226 @@
+package server;
+
+import messages.ProtocolConnection;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * State of one client connection served by an EventLoop. Incoming bytes
+ * are buffered until a whole frame has arrived, then the frame is decoded
+ * by ProtocolConnection which calls the ServerMessage handler.
+ * Responses are buffered and written when the channel is writable.
+ * A reply which waits for the disk suspends the connection: its next
+ * messages are not handled until the reply is sent, while the event loop
+ * serves the other connections. Blocking work of the handler runs on a
+ * worker pool in the same way.
+ * The buffered output is capped: over the cap the connection reads no
+ * more messages, and the pushes of its subscriptions are dropped.
+ */
+class NioConnection {
+    // Output which may be buffered for a client which does not read it
+    static final int MAX_OUTPUT = 16 << 20;
+
+    private final SocketChannel channel;
+    private final FrameInputStream input = new FrameInputStream();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private final ProtocolConnection messenger;
+    private final ServerMessage handler;
+    private ByteBuffer pending;
+    private SelectionKey key;
+
+    // A reply is waiting, the next messages wait for it
+    private boolean suspended = false;
+
+    /**
+     * Main constructor. Binds the handler to a ProtocolConnection which reads
+     * from and writes to the buffers of this connection
+     * @param channel non-blocking channel of the client
+     * @param handler handler of the incoming messages
+     * @param loop event loop which serves the connection, it also writes the pushes
+     * @param worker runs the blocking work of the handler, like hashing the passwords
+     */
+    NioConnection(@NotNull SocketChannel channel, @NotNull ServerMessage handler, @NotNull EventLoop loop, @NotNull Executor worker){
+        this.channel = channel;
+        this.handler = handler;
+
+        /*
+         * ProtocolConnection object. Handles the messages.
+         * Reads from the received bytes and writes into the output buffer
+         */
+        messenger = new ProtocolConnection(
+                null,
+                new DataOutputStream(output),
+                new DataInputStream(input),
+                handler
+        );
+
+        // Set the messenger as handler connection, enables handler to send response messages
+        handler.setConnection(messenger);
+
+        // Pushes are buffered on the event loop like the responses
+        handler.setPusher(push -> loop.execute(() -> {
+            if(!channel.isOpen())
+                return;
+
+            // The client does not keep up with its pushes, it has to pull the changes instead
+            if(buffered() >= MAX_OUTPUT){
+                System.out.println("Client does not read its pushes, dropped its subscriptions");
+                handler.close();
+                return;
+            }
+
+            push.run();
+
+            try{
+                write();
+            }catch (IOException e){
+                System.out.println("Connection failed: " + e.getMessage());
+                close();
+            }
+        }));
+
+        handler.setWorker(worker);
+
+        // Replies which wait for the disk or the worker are sent on the event loop too
+        handler.setDeferrer((condition, reply) -> {
+            suspended = true;
+            condition.whenComplete((result, failure) -> loop.execute(() -> {
+                if(!channel.isOpen())
+                    return;
+
+                reply.run();
+                suspended = false;
+
+                try{
+                    // Messages which arrived meanwhile
+                    decode();
+                }catch (IOException e){
+                    System.out.println("Connection failed: " + e.getMessage());
+                    close();
+                }
+            }));
+        });
+    }
+
+    /**
+     * Register the channel in the selector of the event loop
+     * @param selector selector of the event loop
+     * @throws ClosedChannelException If the client has already disconnected
+     */
+    void register(Selector selector) throws ClosedChannelException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Read the available bytes and handle every complete message among them
+     * @return false if the client has disconnected
+     * @throws IOException If channel IO fails
+     */
+    boolean read() throws IOException {
+        while(readable()){
+            int count = input.fill(channel);
+            if(count == -1)
+                return false;
+
+            if(count == 0)
+                break;
+
+            decode();
+        }
+
+        return true;
+    }
+
+    /**
+     * Decode the complete frames in the input buffer. An incomplete frame
+     * makes ProtocolConnection run out of bytes, in that case the input is
+     * rewound to the start of the frame and decoding continues on next read.
+     * @throws IOException If handling the message fails
+     */
+    private void decode() throws IOException {
+        while(readable() && input.available() > 0){
+            input.mark(0);
+
+            try{
+                messenger.readMessage();
+            }catch (EOFException e){
+                input.reset();
+                break;
+            }
+        }
+
+        write();
+    }
+
+    /**
+     * Write as much of the buffered output as the channel accepts. If some
+     * of it is left, wait for the channel to become writable.
+     * @throws IOException If channel IO fails
+     */
+    void write() throws IOException {
+        boolean full = buffered() >= MAX_OUTPUT;
+
+        if((pending == null || !pending.hasRemaining()) && output.size() > 0){
+            pending = ByteBuffer.wrap(output.toByteArray());
+            output.reset();
+        }
+
+        if(pending != null && pending.hasRemaining())
+            channel.write(pending);
+
+        // A suspended connection reads nothing until its reply is sent, a full one until its output is written
+        int read = readable() ? SelectionKey.OP_READ : 0;
+
+        if(pending != null && pending.hasRemaining()){
+            key.interestOps(read | SelectionKey.OP_WRITE);
+        }else{
+            key.interestOps(read);
+
+            // Responses might have been buffered meanwhile
+            if(output.size() > 0)
+                write();
+            else if(full && read != 0 && input.available() > 0)
+                // Messages which arrived while the output was full
+                decode();
+        }
+    }
+
+    /**
+     * Get the number of bytes which have not been written to the channel
+     * @return size of the buffered output
+     */
+    private int buffered(){
+        return output.size() + (pending == null ? 0 : pending.remaining());
+    }
+
+    /**
+     * Check whether the next message can be handled
+     * @return false if a reply is waiting or the output is full
+     */
+    private boolean readable(){
+        return !suspended && buffered() < MAX_OUTPUT;
+    }
+
+    /**
+     * Close the connection
+     */
+    void close(){
+        handler.close();
+
+        if(key != null)
+            key.cancel();
+
+        try{
+            channel.close();
+        }catch (IOException e){
+            System.out.println("Failed to close connection: " + e.getMessage());
+        }
+    }
+}
@@ -4,9 +4,11 @@ import common.Task;
 import common.TaskContainer;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Order {
     private final TaskContainer tasks;
-    private long order = 0;
+    private final AtomicLong order = new AtomicLong();
 
     public Order(@NotNull TaskContainer tasks) {
         this.tasks = tasks;
@@ -19,11 +21,12 @@ public class Order {
                 biggestTaskId = task.getId();
         }
 
-        // Set new order. This ensures that old Task IDs don't get overwritten
-        order = biggestTaskId + 1;
+        // Set new order. This ensures that old Task IDs don't get overwritten.
+        // Starts from 1, a master task ID of 0 means that a task has no master task
+        order.set(Math.max(1, biggestTaskId + 1));
     }
 
-    synchronized public long getID(){
-        return order++;
+    public long getID(){
+        return order.getAndIncrement();
     }
 }
@@ -0,0 +1,156 @@
+package server;
+
+import common.Boards;
+import common.TaskContainer;
+import common.UserContainer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind saving of the server data. Message handlers only mark the
+ * containers they changed as dirty. The dirty containers are saved in the
+ * background after a fixed interval, or sooner if many changes have piled
+ * up, and once more when the server shuts down.
+ */
+public class PersistenceScheduler {
+    /**
+     * Containers which can be marked dirty
+     */
+    public enum Target {
+        TASKS,
+        USERS,
+        BOARDS
+    }
+
+    private final TaskContainer tasks;
+    private final UserContainer users;
+    private final Boards boards;
+    private final long intervalMS;
+    private final int threshold;
+    private final Set<Target> dirty = EnumSet.noneOf(Target.class);
+    private final Object flushLock = new Object();
+    private int changes = 0;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Main constructor. Initializes the containers and the flush policy
+     * @param tasks container of tasks
+     * @param users container of users
+     * @param boards board names
+     * @param intervalMS how often the dirty containers are saved, in MS
+     * @param threshold number of changes after which the containers are saved without waiting for the interval
+     */
+    public PersistenceScheduler(TaskContainer tasks, UserContainer users, Boards boards, long intervalMS, int threshold) {
+        this.tasks = tasks;
+        this.users = users;
+        this.boards = boards;
+        this.intervalMS = intervalMS;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Start saving in the background
+     */
+    public void start(){
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        executor.scheduleWithFixedDelay(this::backgroundFlush, intervalMS, intervalMS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Mark a container as changed. It will be saved by the next flush
+     * @param target the changed container
+     */
+    public void markDirty(@NotNull Target target){
+        boolean flushNow;
+
+        synchronized (this){
+            dirty.add(target);
+            flushNow = ++changes == threshold;
+        }
+
+        // Too many changes, do not wait for the interval
+        if(flushNow && executor != null){
+            try{
+                executor.execute(this::backgroundFlush);
+            }catch (RejectedExecutionException e){
+                // Shutting down, the final flush saves it
+            }
+        }
+    }
+
+    /**
+     * Save the containers which have changed since the last flush
+     * @throws IOException If file IO fails
+     */
+    public void flush() throws IOException {
+        // Only one flush at a time, so a slow flush can not be overtaken
+        synchronized (flushLock){
+            Set<Target> flushed;
+
+            synchronized (this){
+                flushed = EnumSet.copyOf(dirty);
+                dirty.clear();
+                changes = 0;
+            }
+
+            try{
+                if(flushed.contains(Target.TASKS))
+                    tasks.commit();
+
+                if(flushed.contains(Target.USERS))
+                    users.saveUsers();
+
+                if(flushed.contains(Target.BOARDS))
+                    boards.saveBoards();
+
+            }catch (IOException e){
+                // Retry on the next flush
+                synchronized (this){
+                    dirty.addAll(flushed);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Flush on the background thread. Failures are reported and retried later
+     */
+    private void backgroundFlush(){
+        try{
+            flush();
+        }catch (IOException | RuntimeException e){
+            System.out.println("Failed to save server data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop the background saving and save what is left
+     * @throws IOException If file IO fails
+     */
+    public void shutdown() throws IOException {
+        if(executor != null){
+            executor.shutdown();
+
+            try{
+                executor.awaitTermination(intervalMS, TimeUnit.MILLISECONDS);
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flush();
+    }
+}
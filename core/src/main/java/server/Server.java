@@ -3,13 +3,17 @@ package server;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import common.FsyncPolicy;
+import common.StorageFormat;
 
-import common.Boards;
-import common.TaskContainer;
-import common.User;
-import common.UserContainer;
 import messages.*;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
@@ -17,18 +21,106 @@ import org.jetbrains.annotations.NotNull;
 public class    Server implements Runnable {
     private final InetAddress address;
     private final int port;
+    private final int eventLoops;
+    private final ServerState state;
+    private volatile boolean running = true;
+    private volatile Closeable listener;
 
     /**
-     * Main constructor. Initializes the address and port fields
+     * Main constructor. Initializes the address and port fields.
+     * Every client is served by its own thread
      * @param address
      * @param port
      */
     public Server(InetAddress address, int port) {
+        this(address, port, 0);
+    }
+
+    /**
+     * Secondary constructor. Initializes the address, port and the number
+     * of event loop threads. With event loops, clients are served by a
+     * small number of selector threads instead of a thread per client
+     * @param address
+     * @param port
+     * @param eventLoops number of event loop threads, 0 for thread per client
+     */
+    public Server(InetAddress address, int port, int eventLoops) {
+        this(address, port, eventLoops, StorageFormat.JSON);
+    }
+
+    /**
+     * Secondary constructor. Initializes the address, port, the number
+     * of event loop threads and the format of the saved data
+     * @param address
+     * @param port
+     * @param eventLoops number of event loop threads, 0 for thread per client
+     * @param format format in which the data is saved
+     */
+    public Server(InetAddress address, int port, int eventLoops, StorageFormat format) {
+        this(address, port, eventLoops, format, 1000, 1000, FsyncPolicy.INTERVAL, 100);
+    }
+
+    /**
+     * Secondary constructor. Initializes the address, port, the number
+     * of event loop threads and the directory of the saved data
+     * @param address
+     * @param port
+     * @param eventLoops number of event loop threads, 0 for thread per client
+     * @param directory directory which holds users, tasks and boards
+     */
+    public Server(InetAddress address, int port, int eventLoops, Path directory) {
+        this(address, port, eventLoops, directory, StorageFormat.JSON, 1000, 1000, FsyncPolicy.INTERVAL, 100);
+    }
+
+    /**
+     * Secondary constructor. Initializes the address, port, the number
+     * of event loop threads, the format of the saved data and the policy
+     * of saving the changes. The data is saved in data/server under the
+     * working directory
+     * @param address
+     * @param port
+     * @param eventLoops number of event loop threads, 0 for thread per client
+     * @param format format in which the data is saved
+     * @param flushIntervalMS how often the changes are saved, in MS
+     * @param flushThreshold number of changes after which they are saved without waiting for the interval
+     * @param fsyncPolicy when the task journal is forced to the disk
+     * @param fsyncIntervalMS interval of forcing for FsyncPolicy.INTERVAL, in MS
+     */
+    public Server(InetAddress address, int port, int eventLoops, StorageFormat format, long flushIntervalMS,
+                  int flushThreshold, FsyncPolicy fsyncPolicy, long fsyncIntervalMS) {
+        this(address, port, eventLoops, Path.of("data", "server"), format, flushIntervalMS, flushThreshold, fsyncPolicy, fsyncIntervalMS);
+    }
+
+    /**
+     * Secondary constructor. Initializes all the settings of the server
+     * @param address
+     * @param port
+     * @param eventLoops number of event loop threads, 0 for thread per client
+     * @param directory directory which holds users, tasks and boards
+     * @param format format in which the data is saved
+     * @param flushIntervalMS how often the changes are saved, in MS
+     * @param flushThreshold number of changes after which they are saved without waiting for the interval
+     * @param fsyncPolicy when the task journal is forced to the disk
+     * @param fsyncIntervalMS interval of forcing for FsyncPolicy.INTERVAL, in MS
+     */
+    public Server(InetAddress address, int port, int eventLoops, Path directory, StorageFormat format, long flushIntervalMS,
+                  int flushThreshold, FsyncPolicy fsyncPolicy, long fsyncIntervalMS) {
         this.address = address;
         this.port = port;
+        this.eventLoops = eventLoops;
+        this.state = new ServerState(directory, flushIntervalMS, flushThreshold, fsyncPolicy, fsyncIntervalMS, format);
     }
 
-    private void clientHandler(@NotNull Socket socket, UserContainer users, TaskContainer tasks, Boards boards, Order orderer){
+    private void clientHandler(@NotNull Socket socket){
+        // Pushes of the subscribed boards are written by a thread of their own
+        ExecutorService pusher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ServerMessage handler = state.newHandler();
+        handler.setPusher(pusher);
+
         // IO objects
         try(
                 socket;
@@ -38,14 +130,7 @@ public class    Server implements Runnable {
             // Report success
             System.out.println("client connected, waiting for data");
 
-            User currentUser = null;
-
             // Message object
-            /*
-             * ServerMessage object. Implementation of handling of incoming messages from a client
-             */
-            ServerMessage handler = new ServerMessage(tasks, users, boards, orderer, currentUser);
-
             /*
              * ProtocolConnection object. Handles the messages.
              * Server has to convert readMessage when message is available
@@ -60,11 +145,6 @@ public class    Server implements Runnable {
             while (socket.isConnected()){
                 // Read a message
                 MessageType type = messenger.readMessage();
-
-                // DEBUG
-                tasks.saveTasks();
-                users.saveUsers();
-                boards.saveBoards();
             }
 
             /* End of body */
@@ -72,31 +152,24 @@ public class    Server implements Runnable {
         } catch (IOException e){
             System.out.println("Thread failed: " + Thread.currentThread().getId());
             throw new RuntimeException(e);
+        } finally {
+            handler.close();
+            pusher.shutdownNow();
         }
     }
 
     /**
      * Main loop of the server
      * @param ss ServerSocket object
-     * @throws IOException If construction of UserContainer and TaskContainer fails
      */
-    private void mainLoop(ServerSocket ss) throws IOException {
-        // Do server stuff
-        while(true) {
-            if(address == null)
-                System.out.println("Now listening to localhost:" + port);
-            else
-                System.out.println("Now listening to " + address.getHostAddress() + ":" + port);
-
-            /*
-             * UserContainer and TaskContainer. This is the data the server serves.
-             * Both containers hold users and tasks respectively.
-             */
-            UserContainer users = new UserContainer(Path.of("data", "server", "users"));
-            TaskContainer tasks = new TaskContainer(Path.of("data", "server", "tasks"));
-            Boards boards = new Boards(tasks, Path.of("data", "server", "boards"));
-            Order orderer = new Order(tasks);
+    private void mainLoop(ServerSocket ss) {
+        if(address == null)
+            System.out.println("Now listening to localhost:" + port);
+        else
+            System.out.println("Now listening to " + address.getHostAddress() + ":" + port);
 
+        // Do server stuff
+        while(running) {
             // Accept a connection from a client
             try {
                 Socket socket = ss.accept();
@@ -106,18 +179,114 @@ public class    Server implements Runnable {
 
                 // Create a thread for the client
                 Thread thread = new Thread(() -> {
-                    clientHandler(socket, users, tasks, boards, orderer);
+                    clientHandler(socket);
                 });
 
                 // Start the thread
                 thread.start();
 
             }catch (IOException e){
+                // Closed by stop()
+                if(!running)
+                    return;
+
                 throw new RuntimeException("Socket accept failed", e);
             }
         }
     }
 
+    /**
+     * Main loop of the server in event loop mode. Accepts the connections
+     * and hands them over to the event loops in round robin
+     * @param ssc ServerSocketChannel object
+     * @throws IOException If event loops can not be created
+     */
+    private void selectorLoop(ServerSocketChannel ssc) throws IOException {
+        // Start the event loops
+        EventLoop[] loops = new EventLoop[eventLoops];
+        for(int i = 0; i < loops.length; i++){
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.start();
+        }
+
+        // Blocking work of the handlers, so the event loops do not wait for it
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if(address == null)
+            System.out.println("Now listening to localhost:" + port + " with " + eventLoops + " event loops");
+        else
+            System.out.println("Now listening to " + address.getHostAddress() + ":" + port + " with " + eventLoops + " event loops");
+
+        try{
+            for(long next = 0; running; next++) {
+                // Accept a connection from a client
+                SocketChannel channel;
+                try{
+                    channel = ssc.accept();
+                }catch (IOException e){
+                    // Closed by stop()
+                    if(!running)
+                        return;
+
+                    throw e;
+                }
+
+                channel.configureBlocking(false);
+
+                // Hand the connection over to an event loop
+                EventLoop loop = loops[(int) (next % loops.length)];
+                loop.register(new NioConnection(channel, state.newHandler(), loop, workers));
+            }
+        }finally {
+            for(EventLoop loop: loops)
+                loop.close();
+
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Stop accepting connections. The server saves its state and run() returns
+     */
+    public void stop(){
+        running = false;
+
+        try{
+            Closeable current = listener;
+            if(current != null)
+                current.close();
+        }catch (IOException e){
+            System.out.println("Failed to close the server socket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Method for producing ServerSocketChannel objects. If Internet Address is not
+     * specified, the channel is bound to localhost.
+     * @return new ServerSocketChannel object in blocking mode
+     * @throws IOException If socket IO fails
+     */
+    @NotNull
+    @Contract(" -> new")
+    private ServerSocketChannel getSSC() throws IOException {
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+
+        if(address == null) {
+            ssc.bind(new InetSocketAddress(port));
+            System.out.println("Server established on localhost:" + port);
+        }else {
+            ssc.bind(new InetSocketAddress(address, port));
+            System.out.println("Server established on " + address.getHostAddress() + ":" + port);
+        }
+
+        return ssc;
+    }
+
     /**
      * Method for producing ServerSocket objects. If Internet Address is not
      * specified, the ServerSocket is bound to localhost.
@@ -142,8 +311,27 @@ public class    Server implements Runnable {
 
     @Override
     public void run() {
-        try(ServerSocket ss = getSS()){
-            mainLoop(ss);
+        try{
+            // Load the data once, it is shared by all the clients
+            state.start();
+
+            // Event loop mode
+            if(eventLoops > 0){
+                try(ServerSocketChannel ssc = getSSC()){
+                    listener = ssc;
+                    selectorLoop(ssc);
+                }
+            }
+
+            // Thread per client mode
+            else{
+                try(ServerSocket ss = getSS()){
+                    listener = ss;
+                    mainLoop(ss);
+                }
+            }
+
+            state.shutdown();
         }catch (IOException e){
             throw new RuntimeException(e);
         }
@@ -1,13 +1,56 @@
 package server;
 
+import common.FsyncPolicy;
+import common.StorageFormat;
+
 public class ServerApp {
     public static void main(String[] args) {
+        // Number of event loop threads. 0 falls back to a thread per client
+        int eventLoops = Runtime.getRuntime().availableProcessors();
+        if(args.length > 0)
+            eventLoops = Integer.parseInt(args[0]);
+
+        // Format of the saved data, json or binary
+        StorageFormat format = StorageFormat.JSON;
+        if(args.length > 1)
+            format = StorageFormat.valueOf(args[1].toUpperCase());
+
+        // When the task journal is forced to the disk, always, interval or os
+        FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+        if(args.length > 2)
+            fsyncPolicy = FsyncPolicy.valueOf(args[2].toUpperCase());
+
+        // Interval of forcing the journal with the interval policy, in MS
+        long fsyncIntervalMS = 100;
+        if(args.length > 3)
+            fsyncIntervalMS = Long.parseLong(args[3]);
+
+        // How often the changes are saved, in MS
+        long flushIntervalMS = 1000;
+        if(args.length > 4)
+            flushIntervalMS = Long.parseLong(args[4]);
+
+        // Number of changes after which they are saved without waiting for the interval
+        int flushThreshold = 1000;
+        if(args.length > 5)
+            flushThreshold = Integer.parseInt(args[5]);
+
         // Create a server bound to localhost:1337
-        Server server = new Server(null, 1337);
+        Server server = new Server(null, 1337, eventLoops, format, flushIntervalMS, flushThreshold, fsyncPolicy, fsyncIntervalMS);
 
         // Main thread
         Thread serverThread = new Thread(server);
 
+        // Save the data when the process is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            try{
+                serverThread.join();
+            }catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }));
+
         // Activate the thread
         serverThread.start();
     }
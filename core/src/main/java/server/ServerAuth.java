@@ -38,16 +38,17 @@ public class ServerAuth{
         return salt;
     }
 
+    // Throws IllegalArgumentException if the name is taken, also by a registration running at the same time
     public static User registerUser(String username, String password, UserContainer userContainer) throws NoSuchAlgorithmException, InvalidKeySpecException{
         byte[] salt = generateSalt();
-        userContainer.newUser(username, generateHash(password, salt), salt);
+        User user = userContainer.newUser(username, generateHash(password, salt), salt);
         try{
             userContainer.saveUsers();
         }catch(IOException e){
             System.out.println("Thread failed: " + Thread.currentThread().getId());
             throw new RuntimeException(e);
         }
-        return userContainer.getUser(username);
+        return user;
     }
 
     public static boolean logUserIn(String username, String password, UserContainer userContainer) throws NoSuchAlgorithmException, InvalidKeySpecException{
@@ -58,6 +59,7 @@ public class ServerAuth{
         System.arraycopy(user.getHashAndSalt(), 32, salt, 0, 32);
         if(verifyPassword(password, salt, hash)){
             user.setLastOnline();
+            userContainer.markChanged(user);
             return true;
         }else{
             return false;
@@ -103,5 +105,8 @@ public class ServerAuth{
             }
         }
 
+        if(affected != null)
+            users.markChanged(affected);
+
     }
 }
@@ -9,15 +9,48 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 public class ServerMessage implements JiraMessageHandler {
+    /**
+     * Delays a reply until a condition is met, without blocking the thread
+     * which handles the messages. The connection must not handle its next
+     * message before the reply is sent, so the replies stay in order
+     */
+    public interface Deferrer {
+        void defer(CompletableFuture<Void> condition, Runnable reply);
+    }
+
+    /**
+     * Work which blocks, like hashing a password or writing to the disk
+     */
+    private interface BlockingWork<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Reply to the result of blocking work
+     */
+    private interface Reply<T> {
+        void send(T result) throws IOException;
+    }
+
     private final TaskContainer tasks;
     private final UserContainer users;
     private final Boards boards;
     private final Order orderer;
+    private final PersistenceScheduler persistence;
+    private final Subscriptions subscriptions;
+    private final Object sendLock = new Object();
     private ProtocolConnection connection;
+    private Executor pusher;
+    private Executor worker;
+    private Deferrer deferrer;
+    private Subscriptions.Subscriber subscriber;
     private User currentUser;
     private User potentialUser;
 
@@ -25,13 +58,18 @@ public class ServerMessage implements JiraMessageHandler {
      * Main constructor. Initializes task and user containers
      * @param tasks
      * @param users
+     * @param persistence scheduler which saves the changed containers
+     * @param subscriptions board subscriptions of all the connections
      */
     @Contract(pure = true)
-    public ServerMessage(TaskContainer tasks, UserContainer users, Boards boards, Order orderer, User currentUser) {
+    ServerMessage(TaskContainer tasks, UserContainer users, Boards boards, Order orderer, PersistenceScheduler persistence,
+                  Subscriptions subscriptions, User currentUser) {
         this.tasks = tasks;
         this.users = users;
         this.boards = boards;
         this.orderer = orderer;
+        this.persistence = persistence;
+        this.subscriptions = subscriptions;
         this.currentUser = currentUser;
     }
 
@@ -39,14 +77,195 @@ public class ServerMessage implements JiraMessageHandler {
         this.connection = connection;
     }
 
+    /**
+     * Set the executor which sends the pushes of the subscribed boards to
+     * this connection. Without one the connection can not subscribe
+     * @param pusher runs the pushes in the order they are given
+     */
+    public void setPusher(Executor pusher){
+        this.pusher = pusher;
+    }
+
+    /**
+     * Set the executor which runs the blocking work of this connection, so
+     * the thread which handles the messages of many connections does not
+     * wait for it. Only used together with a deferrer
+     * @param worker runs the blocking work
+     */
+    public void setWorker(Executor worker){
+        this.worker = worker;
+    }
+
+    /**
+     * Set the deferrer which sends the replies once the changes are on the
+     * disk. Without one the handler waits for the disk before it replies
+     * @param deferrer delays the replies of this connection
+     */
+    public void setDeferrer(Deferrer deferrer){
+        this.deferrer = deferrer;
+    }
+
+    /**
+     * Stop the pushes to this connection. Called when the connection closes
+     */
+    public void close(){
+        if(subscriber != null)
+            subscriptions.unsubscribeAll(subscriber);
+    }
+
+    /**
+     * Get the boards of a task before it is changed
+     * @param taskId ID of the task
+     * @return IDs of the boards, empty if the task does not exist
+     */
+    private long[] boardsOf(long taskId){
+        Task task = tasks.getTask(taskId);
+        return task == null ? new long[0] : task.getBoards();
+    }
+
+    /**
+     * Tell the subscribers of the boards of a task that it has changed
+     * @param taskId ID of the task
+     * @param before boards of the task before the change
+     */
+    private void publish(long taskId, long[] before){
+        subscriptions.changed(taskId, before, boardsOf(taskId), subscriber);
+    }
+
+    /**
+     * Send the changes of the subscribed boards. Removed tasks are sent as
+     * their IDs
+     * SETPROJECT(PUSH)... -> SETPROJECT(REMOVED)...
+     * @param changed current state of the changed tasks, with their versions
+     * @param removed IDs of the removed tasks
+     */
+    void push(List<VersionedTask> changed, List<Long> removed){
+        try{
+            if(!changed.isEmpty())
+                TaskFrames.sendVersioned(TaskFrames.PUSH, null, changed, TaskFrames.FRAME_BYTES, frame -> send(frame, MessageType.SETPROJECT));
+
+            if(!removed.isEmpty())
+                TaskFrames.sendRemoved(removed, TaskFrames.FRAME_BYTES, frame -> send(frame, MessageType.SETPROJECT));
+        }catch (IOException e){
+            System.out.println("Failed to push changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start or stop receiving the changes of a board as they happen
+     * GETSERVERTASKLIST(subscription) -> RESPONSE
+     * @param subscription the board and whether to subscribe
+     * @return null
+     */
+    public RawError subscribe(@NotNull BoardSubscription subscription) {
+        if(pusher == null){
+            error(new IllegalStateException("Connection can not receive pushes"));
+            return null;
+        }
+
+        if(subscriber == null)
+            subscriber = subscriptions.newSubscriber(this, pusher);
+
+        if(subscription.subscribed)
+            subscriptions.subscribe(subscriber, subscription.boardId);
+        else
+            subscriptions.unsubscribe(subscriber, subscription.boardId);
+
+        respnd();
+        return null;
+    }
+
+    /**
+     * Send a message. Pushes are sent from other threads, so a message is
+     * written whole before the next one
+     * @param o the message
+     * @param type type of the message
+     * @throws IOException If sending fails
+     */
+    private void send(Object o, MessageType type) throws IOException {
+        synchronized (sendLock){
+            connection.sendMessage(o, type);
+        }
+    }
+
     private void sendResponse(Object o, MessageType type) {
         try {
-            connection.sendMessage(o, type);
+            send(o, type);
         }catch (IOException e){
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Reply once the task changes of this request are on the disk, as the
+     * FsyncPolicy of the task journal requires. With a deferrer the thread
+     * goes on serving other connections meanwhile, without one it waits
+     * @param reply sends the reply
+     */
+    private void replyWhenDurable(Runnable reply) {
+        CompletableFuture<Void> durable = tasks.whenDurable();
+        Runnable guarded = () -> {
+            try{
+                durable.join();
+            }catch (CompletionException e){
+                error(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                return;
+            }
+            reply.run();
+        };
+
+        if(deferrer == null || durable.isDone())
+            guarded.run();
+        else
+            deferrer.defer(durable, guarded);
+    }
+
+    /**
+     * Run blocking work and reply with its result. With a deferrer and a
+     * worker the work runs on the worker and the connection waits for the
+     * reply, without them the work runs on this thread. Handler state is
+     * only changed by the reply, which runs on the thread of the connection
+     * @param work the blocking work, it must not touch the handler state
+     * @param reply sends the reply, failures of the work are sent as ERROR
+     */
+    private <T> void runBlocking(BlockingWork<T> work, Reply<T> reply) {
+        CompletableFuture<T> result;
+        if(deferrer == null || worker == null){
+            result = new CompletableFuture<>();
+            try{
+                result.complete(work.run());
+            }catch (Exception e){
+                result.completeExceptionally(e);
+            }
+        }else{
+            result = CompletableFuture.supplyAsync(() -> {
+                try{
+                    return work.run();
+                }catch (Exception e){
+                    throw new CompletionException(e);
+                }
+            }, worker);
+        }
+
+        Runnable guarded = () -> {
+            try{
+                reply.send(result.join());
+            }catch (CompletionException e){
+                Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                error(cause);
+                System.out.println("Request failed: " + cause.getMessage());
+            }catch (IOException e){
+                error(e);
+                System.out.println("Failed to send message: " + e.getMessage());
+            }
+        };
+
+        if(result.isDone())
+            guarded.run();
+        else
+            deferrer.defer(result.thenApply(value -> null), guarded);
+    }
+
     private void respnd(){
         sendResponse(null, MessageType.RESPONSE);
     }
@@ -55,6 +274,40 @@ public class ServerMessage implements JiraMessageHandler {
         sendResponse(new RawError("Failed to send the message\n" + e.getMessage()), MessageType.ERROR);
     }
 
+    /**
+     * Send tasks with their versions in frames of many tasks, followed by RESPONSE
+     * SETPROJECT... -> RESPONSE
+     * @param projectId ID of the board, TaskFrames.LISTING for other listings
+     * @param name name of the board, null for other listings
+     * @param copies the tasks and their versions
+     * @throws IOException If sending fails
+     */
+    private void sendFrames(long projectId, String name, Iterable<VersionedTask> copies) throws IOException {
+        TaskFrames.sendVersioned(projectId, name, copies, TaskFrames.FRAME_BYTES, frame -> send(frame, MessageType.SETPROJECT));
+        send(null, MessageType.RESPONSE);
+    }
+
+    /**
+     * Send a changed task with its new version, so the client can base its
+     * next change of the task on it
+     * SETPROJECT(LISTING)
+     * @param task the changed task
+     */
+    private void sendVersion(Task task) {
+        try{
+            TaskFrames.sendVersioned(TaskFrames.LISTING, null, List.of(task.getVersionedTask()), TaskFrames.FRAME_BYTES,
+                    frame -> send(frame, MessageType.SETPROJECT));
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create a task. The created task is sent back with its ID and version
+     * CREATETASK -> SETPROJECT(LISTING) -> UPDATETASK
+     * @param newTask the task, its ID is given by the server
+     * @return null
+     */
     @Override
     public RawError createTask(@NotNull RawTask newTask) {
         // TODO: Check user auth
@@ -66,10 +319,22 @@ public class ServerMessage implements JiraMessageHandler {
             newTask.boards[0] = 0;
 
         // Creates a new task and stores it into the container
-        tasks.newTask(newTask);
+        Task created;
+        try{
+            created = tasks.newTask(newTask);
+        }catch (IllegalArgumentException e){
+            // Master task would create a cycle
+            error(e);
+            return null;
+        }
+        publish(newTask.taskId, new long[0]);
+        persistence.markDirty(PersistenceScheduler.Target.TASKS);
 
         // Send the response
-        sendResponse(newTask, MessageType.UPDATETASK);
+        replyWhenDurable(() -> {
+            sendVersion(created);
+            sendResponse(newTask, MessageType.UPDATETASK);
+        });
         return null;
     }
 
@@ -77,38 +342,273 @@ public class ServerMessage implements JiraMessageHandler {
     public RawError removeTask(Long taskId) {
         // TODO: Check user auth
         // Removes a task by it's id
+        long[] before = boardsOf(taskId);
         tasks.removeTask(taskId);
+        publish(taskId, before);
+        persistence.markDirty(PersistenceScheduler.Target.TASKS);
 
         // Send the response
-        respnd();
+        replyWhenDurable(this::respnd);
         return null;
     }
 
+    /**
+     * Replace a task with a new version, whatever the version of the task.
+     * The stored task is sent back with its new version
+     * UPDATETASK -> SETPROJECT(LISTING) -> RESPONSE
+     * @param updatedTask the new version of the task
+     * @return null
+     */
     @Override
     public RawError updateTask(RawTask updatedTask) {
+        return updateTask(updatedTask, null);
+    }
+
+    /**
+     * Replace a task with a new version, if the task has not changed since
+     * the version the update is based on. A stale update is rejected with
+     * ERROR, so a client does not overwrite the changes of another one.
+     * The stored task is sent back with its new version
+     * GETSERVERTASKLIST(update) -> SETPROJECT(LISTING) -> RESPONSE
+     * @param update the new version of the task and the version it is based on
+     * @return null
+     */
+    public RawError updateTask(@NotNull TaskUpdate update) {
+        return updateTask(update.task, update.expectedVersion);
+    }
+
+    /**
+     * Replace a task with a new version
+     * @param updatedTask the new version of the task
+     * @param expectedVersion version the update is based on, null to replace any version
+     * @return null
+     */
+    private RawError updateTask(RawTask updatedTask, Long expectedVersion) {
         // TODO: Check user auth
         // Update a task
-        tasks.updateTask(updatedTask);
+        long[] before = boardsOf(updatedTask.taskId);
+        Task updated;
+        try{
+            if(expectedVersion == null)
+                updated = tasks.updateTask(updatedTask);
+            else
+                updated = tasks.updateTask(updatedTask, expectedVersion);
+        }catch (IllegalArgumentException | VersionConflictException e){
+            // Master task would create a cycle, or the update is based on a stale version
+            error(e);
+            return null;
+        }
+        publish(updatedTask.taskId, before);
+        persistence.markDirty(PersistenceScheduler.Target.TASKS);
 
         // Send the response
-        respnd();
+        replyWhenDurable(() -> {
+            sendVersion(updated);
+            respnd();
+        });
         return null;
     }
 
     @Override
-    public RawError getServerTaskList(Object unimplemented) {
-        for(Task task: tasks.getTasks()){
-            try{
-                connection.sendMessage(task.getRawTask(), MessageType.UPDATETASK);
-            }catch (IOException e){
-                error(e);
-                System.out.println("Failed to send message: " + e.getMessage());
+    public RawError getServerTaskList(Object request) {
+        // A request without a payload asks for all the tasks
+        if(request != null)
+            return dispatch(request);
+
+        // Frozen copies, so sending a long list does not hold back the writers
+        try{
+            sendFrames(TaskFrames.LISTING, null, tasks.getVersionedTasks());
+        }catch (IOException e){
+            error(e);
+            System.out.println("Failed to send message: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Handle a request by the op it names. A request with an unknown op,
+     * or without a field its op needs, is answered with ERROR
+     * @param request the payload of GETSERVERTASKLIST
+     * @return null
+     */
+    private RawError dispatch(@NotNull Object request) {
+        Object parsed;
+        try{
+            parsed = TaskRequest.parse(request);
+        }catch (IllegalArgumentException e){
+            error(e);
+            return null;
+        }
+
+        // The class of the request is the class of its op
+        if(parsed instanceof TaskPatch)
+            return patchTask((TaskPatch) parsed);
+
+        if(parsed instanceof TaskUpdate)
+            return updateTask((TaskUpdate) parsed);
+
+        if(parsed instanceof BoardSubscription)
+            return subscribe((BoardSubscription) parsed);
+
+        if(parsed instanceof TaskChanges.Request)
+            return sendChanges((TaskChanges.Request) parsed);
+
+        if(parsed instanceof SubtaskRequest)
+            return sendSubtasks((SubtaskRequest) parsed);
+
+        return queryTasks((TaskQuery) parsed);
+    }
+
+    /**
+     * Send the tasks which have changed since a number of the change
+     * sequence, and the IDs of the removed ones. If the changes since the
+     * number are not kept anymore, all the tasks are sent instead. Only the
+     * tasks in the boards of the request are sent, the changed tasks which
+     * are not in them anymore are sent as removed. The frames have the
+     * number the client has to ask for the next time
+     * GETSERVERTASKLIST(changes since) -> SETPROJECT... -> REMOVETASK... -> RESPONSE
+     * @param request number of the last change the client has and the boards it keeps
+     * @return null
+     */
+    public RawError sendChanges(@NotNull TaskChanges.Request request) {
+        long since = request.changesSince;
+        try{
+            TaskChanges changes = since < 0 ? null : tasks.getChangesSince(since);
+
+            if(changes == null){
+                // The number is taken first, the listing has at least the changes up to it
+                long sequence = tasks.getSequence();
+                List<VersionedTask> listing = new ArrayList<>();
+                for(VersionedTask copy: tasks.getVersionedTasks()){
+                    if(request.includes(copy.task))
+                        listing.add(copy);
+                }
+
+                TaskFrames.sendVersioned(TaskFrames.RESYNC, String.valueOf(sequence), listing, TaskFrames.FRAME_BYTES,
+                        frame -> send(frame, MessageType.SETPROJECT));
+            }else{
+                List<VersionedTask> changed = new ArrayList<>();
+                List<Long> removed = new ArrayList<>();
+                for(long id: changes.getChanged()){
+                    // Removed after the changes were read, or moved out of the boards
+                    Task task = tasks.getTask(id);
+                    VersionedTask copy = task == null ? null : task.getVersionedTask();
+                    if(copy == null || !request.includes(copy.task))
+                        removed.add(id);
+                    else
+                        changed.add(copy);
+                }
+
+                for(long id: changes.getRemoved())
+                    removed.add(id);
+
+                TaskFrames.sendVersioned(TaskFrames.CHANGES, String.valueOf(changes.getSequence()), changed, TaskFrames.FRAME_BYTES,
+                        frame -> send(frame, MessageType.SETPROJECT));
+
+                for(long id: removed)
+                    send(id, MessageType.REMOVETASK);
             }
+
+            send(null, MessageType.RESPONSE);
+        }catch (IOException e){
+            error(e);
+            System.out.println("Failed to send message: " + e.getMessage());
         }
 
         return null;
     }
 
+    /**
+     * Send the subtasks of a task, the direct ones or the whole subtree
+     * breadth first
+     * GETSERVERTASKLIST(subtasks) -> SETPROJECT... -> RESPONSE
+     * @param request the master task and the depth
+     * @return null
+     */
+    public RawError sendSubtasks(@NotNull SubtaskRequest request) {
+        if(tasks.getTask(request.taskId) == null){
+            error(new IllegalArgumentException("Task with given ID does not exist"));
+            return null;
+        }
+
+        List<Task> subtasks = request.subtree ? tasks.getSubtree(request.taskId) : tasks.getSubtasks(request.taskId);
+        List<VersionedTask> copies = new ArrayList<>(subtasks.size());
+        for(Task task: subtasks)
+            copies.add(task.getVersionedTask());
+
+        try{
+            sendFrames(TaskFrames.LISTING, null, copies);
+        }catch (IOException e){
+            error(e);
+            System.out.println("Failed to send message: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Send the page of tasks which match a query, in the order of the query
+     * GETSERVERTASKLIST(query) -> SETPROJECT... -> RESPONSE
+     * @param query the query
+     * @return null
+     */
+    public RawError queryTasks(@NotNull TaskQuery query) {
+        try{
+            List<Task> page = tasks.query(query);
+            List<VersionedTask> copies = new ArrayList<>(page.size());
+            for(Task task: page)
+                copies.add(task.getVersionedTask());
+
+            sendFrames(TaskFrames.LISTING, null, copies);
+        }catch (IllegalArgumentException e){
+            // Negative offset
+            error(e);
+        }catch (IOException e){
+            error(e);
+            System.out.println("Failed to send message: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Change some fields of a task in place, without replacing the task.
+     * A patch with an expected version is rejected with ERROR if the task
+     * has changed since that version, so a stale client does not overwrite
+     * the changes of another one. The patched task is sent back with its
+     * new version
+     * GETSERVERTASKLIST(patch) -> SETPROJECT(LISTING) -> RESPONSE
+     * @param patch the changed fields
+     * @return null
+     */
+    public RawError patchTask(@NotNull TaskPatch patch) {
+        // TODO: Check user auth
+        long[] before = boardsOf(patch.taskId);
+        Task patched;
+        try{
+            patched = tasks.patchTask(patch);
+            if(patched == null){
+                error(new IllegalArgumentException("Task with given ID does not exist"));
+                return null;
+            }
+        }catch (IllegalArgumentException | VersionConflictException e){
+            // Master task would create a cycle, or the patch is based on a stale version
+            error(e);
+            return null;
+        }
+        publish(patch.taskId, before);
+
+        persistence.markDirty(PersistenceScheduler.Target.TASKS);
+
+        // Send the response
+        replyWhenDurable(() -> {
+            sendVersion(patched);
+            respnd();
+        });
+        return null;
+    }
+
     @Override
     public RawError setSession(RawSession session) {
         return null;
@@ -123,28 +623,32 @@ public class ServerMessage implements JiraMessageHandler {
                     // null, null - cancel login/registration request / logout
                     if(currentUser == null){
                         potentialUser = null;
-                        connection.sendMessage(new RawLogin("cancelled", null), MessageType.LOGIN);
+                        send(new RawLogin("cancelled", null), MessageType.LOGIN);
                     }else{
                         currentUser = null;
                         potentialUser = null;
-                        connection.sendMessage(new RawLogin("logged out", null), MessageType.LOGIN);
+                        send(new RawLogin("logged out", null), MessageType.LOGIN);
                     }
 
                 }else{
                     // null, password - attempts to log in as user previuosly sent via username, null
-                    try{
-                        if(ServerAuth.logUserIn(potentialUser.getName(), rawLogin.password, users)){
-                            currentUser = potentialUser;
-                            potentialUser = null;
-                            connection.sendMessage(new RawLogin("logged in", null), MessageType.LOGIN);
+                    User candidate = potentialUser;
+                    potentialUser = null;
+                    if(candidate == null){
+                        send(new RawLogin("does not exist", null), MessageType.LOGIN);
+                        return null;
+                    }
+
+                    // Hashing the password takes long, it runs on the worker
+                    runBlocking(() -> ServerAuth.logUserIn(candidate.getName(), rawLogin.password, users), loggedIn -> {
+                        if(loggedIn){
+                            persistence.markDirty(PersistenceScheduler.Target.USERS);
+                            currentUser = candidate;
+                            send(new RawLogin("logged in", null), MessageType.LOGIN);
                         }else{
-                            potentialUser = null;
-                            connection.sendMessage(new RawLogin("wrong password", null), MessageType.LOGIN);
+                            send(new RawLogin("wrong password", null), MessageType.LOGIN);
                         }
-                    }catch(NoSuchAlgorithmException | InvalidKeySpecException e){
-                        error(e);
-                        System.out.println("Failed to log user in: " + e.getMessage());
-                    }
+                    });
                 }
 
             }else{
@@ -153,23 +657,32 @@ public class ServerMessage implements JiraMessageHandler {
                     // username, null - checks if user exists on the server
                     potentialUser = users.getUser(rawLogin.username);
                     if(potentialUser != null){
-                        connection.sendMessage(new RawLogin("exists", null), MessageType.LOGIN);
+                        send(new RawLogin("exists", null), MessageType.LOGIN);
                     }else{
-                        connection.sendMessage(new RawLogin("does not exist", null), MessageType.LOGIN);
+                        send(new RawLogin("does not exist", null), MessageType.LOGIN);
                     }
 
                 }else{
                     // username, password - initiates registration procedure
                     if(users.getUser(rawLogin.username) == null){
-                        try{
-                            currentUser = ServerAuth.registerUser(rawLogin.username, rawLogin.password, users);
-                            connection.sendMessage(new RawLogin("registered", null), MessageType.LOGIN);
-                        }catch(NoSuchAlgorithmException | InvalidKeySpecException e){
-                            error(e);
-                            System.out.println("Failed to register user: " + e.getMessage());
-                        }
+                        // Hashing the password and saving the users take long, they run on the worker
+                        runBlocking(() -> {
+                            try{
+                                return ServerAuth.registerUser(rawLogin.username, rawLogin.password, users);
+                            }catch(IllegalArgumentException e){
+                                // Registered by another session after the check
+                                return null;
+                            }
+                        }, registered -> {
+                            if(registered != null){
+                                currentUser = registered;
+                                send(new RawLogin("registered", null), MessageType.LOGIN);
+                            }else{
+                                send(new RawLogin("already exists", null), MessageType.LOGIN);
+                            }
+                        });
                     }else{
-                        connection.sendMessage(new RawLogin("already exists", null), MessageType.LOGIN);
+                        send(new RawLogin("already exists", null), MessageType.LOGIN);
                     }
                 }
             }
@@ -183,6 +696,7 @@ public class ServerMessage implements JiraMessageHandler {
     @Override
     public RawError userInfo(RawUser user) {
         ServerAuth.addUserData(currentUser, user, users);
+        persistence.markDirty(PersistenceScheduler.Target.USERS);
         respnd();
         return null;
     }
@@ -190,7 +704,7 @@ public class ServerMessage implements JiraMessageHandler {
     @Override
     public RawError getProjectList() {
         try {
-            connection.sendMessage(boards.getRawProjectNameList(), MessageType.SETPROJECTLIST);
+            send(boards.getRawProjectNameList(), MessageType.SETPROJECTLIST);
         }catch (IOException e){
             error(e);
             System.out.println("Failed to send message: " + e.getMessage());
@@ -203,10 +717,16 @@ public class ServerMessage implements JiraMessageHandler {
         return null;
     }
 
+    /**
+     * Send the tasks of a board
+     * GETPROJECT -> SETPROJECT... -> RESPONSE
+     * @param projectId ID of the board
+     * @return null
+     */
     @Override
     public RawError getProject(Long projectId) {
         try{
-            connection.sendMessage(boards.getRawProject(projectId), MessageType.SETPROJECT);
+            sendFrames(projectId, boards.getBoardName(projectId), tasks.getVersionedTasks(projectId));
         }catch (IOException e){
             error(e);
             System.out.println("Failed to send message: " + e.getMessage());
@@ -216,8 +736,31 @@ public class ServerMessage implements JiraMessageHandler {
 
     @Override
     public RawError setProject(RawProject rawProject) {
-        boards.registerBoard(rawProject);
-        respnd();
+        long[][] before = new long[rawProject.tasks.length][];
+        for(int i = 0; i < before.length; i++)
+            before[i] = boardsOf(rawProject.tasks[i].taskId);
+
+        IllegalArgumentException failure = null;
+        try{
+            boards.registerBoard(rawProject);
+        }catch (IllegalArgumentException e){
+            // Master task of a task would create a cycle, the tasks before it are stored
+            failure = e;
+        }
+
+        for(int i = 0; i < before.length; i++)
+            publish(rawProject.tasks[i].taskId, before[i]);
+
+        persistence.markDirty(PersistenceScheduler.Target.BOARDS);
+        persistence.markDirty(PersistenceScheduler.Target.TASKS);
+
+        IllegalArgumentException rejected = failure;
+        replyWhenDurable(() -> {
+            if(rejected != null)
+                error(rejected);
+            else
+                respnd();
+        });
         return null;
     }
 }
@@ -0,0 +1,137 @@
+package server;
+
+import common.Boards;
+import common.FsyncPolicy;
+import common.StorageFormat;
+import common.TaskContainer;
+import common.UserContainer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The data the server serves. It is loaded once when the server starts
+ * and shared by all the client sessions, so every session sees the same
+ * live data. Changes are saved in the background by a PersistenceScheduler
+ * and the rest of them when the server shuts down.
+ */
+public class ServerState {
+    private final Path directory;
+    private UserContainer users;
+    private TaskContainer tasks;
+    private Boards boards;
+    private Order orderer;
+    private PersistenceScheduler persistence;
+    private Subscriptions subscriptions;
+    private final long flushIntervalMS;
+    private final int flushThreshold;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMS;
+    private final StorageFormat format;
+
+    /**
+     * Main constructor. Initializes the directory of the data. Changes are
+     * saved every second or after every 1000 changes, the task journal is
+     * forced to the disk every 100 MS. Data is saved as JSON
+     * @param directory directory which holds users, tasks and boards
+     */
+    public ServerState(@NotNull Path directory) {
+        this(directory, 1000, 1000, FsyncPolicy.INTERVAL, 100, StorageFormat.JSON);
+    }
+
+    /**
+     * Secondary constructor. Initializes the directory of the data and
+     * the policy of saving the changes
+     * @param directory directory which holds users, tasks and boards
+     * @param flushIntervalMS how often the changes are saved, in MS
+     * @param flushThreshold number of changes after which they are saved without waiting for the interval
+     * @param fsyncPolicy when the task journal is forced to the disk
+     * @param fsyncIntervalMS interval of forcing for FsyncPolicy.INTERVAL, in MS
+     * @param format format in which users, tasks and boards are saved
+     */
+    public ServerState(@NotNull Path directory, long flushIntervalMS, int flushThreshold, @NotNull FsyncPolicy fsyncPolicy,
+                       long fsyncIntervalMS, @NotNull StorageFormat format) {
+        this.directory = directory;
+        this.flushIntervalMS = flushIntervalMS;
+        this.flushThreshold = flushThreshold;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMS = fsyncIntervalMS;
+        this.format = format;
+    }
+
+    /**
+     * Load the users, tasks and boards from the data directory
+     * @throws IOException If file IO fails
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+
+        /*
+         * UserContainer and TaskContainer. This is the data the server serves.
+         * Both containers hold users and tasks respectively.
+         */
+        users = new UserContainer(directory.resolve("users"));
+        tasks = new TaskContainer(directory.resolve("tasks"), directory.resolve("tasks.journal"), fsyncPolicy, fsyncIntervalMS);
+        boards = new Boards(tasks, directory.resolve("boards"));
+        orderer = new Order(tasks);
+
+        // Assignee, deadline, priority, completion and text lookups
+        tasks.enableIndexes();
+        tasks.enableSearch();
+
+        // Existing files are read in any format and converted when saved
+        users.setStorageFormat(format);
+        tasks.setStorageFormat(format);
+        boards.setStorageFormat(format);
+
+        // Save the changes in the background
+        persistence = new PersistenceScheduler(tasks, users, boards, flushIntervalMS, flushThreshold);
+        persistence.start();
+
+        // Pushes of the changes to the subscribed connections
+        subscriptions = new Subscriptions(tasks);
+    }
+
+    /**
+     * Save the changes which are not saved yet. Called when the server stops
+     * @throws IOException If file IO fails
+     * @throws IllegalStateException If the state was never started
+     */
+    public void shutdown() throws IOException {
+        if(persistence == null)
+            throw new IllegalStateException("Can not shut down: server state was never started");
+
+        persistence.shutdown();
+        tasks.close();
+    }
+
+    /**
+     * Create a message handler for a new client session
+     * @return ServerMessage object which works on this state
+     */
+    public ServerMessage newHandler(){
+        return new ServerMessage(tasks, users, boards, orderer, persistence, subscriptions, null);
+    }
+
+    public UserContainer getUsers() {
+        return users;
+    }
+
+    public TaskContainer getTasks() {
+        return tasks;
+    }
+
+    public Boards getBoards() {
+        return boards;
+    }
+
+    public Order getOrderer() {
+        return orderer;
+    }
+
+    public PersistenceScheduler getPersistence() {
+        return persistence;
+    }
+}
@@ -0,0 +1,170 @@
+package server;
+
+import common.Task;
+import common.TaskContainer;
+import common.VersionedTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Board subscriptions of the client connections. A change of a task is
+ * pushed to every connection which has subscribed to a board of the task.
+ * Writers only note the ID of the changed task. The task is read and sent
+ * later on the executor of the connection, so a writer never waits for a
+ * client, and many changes of one task before the push are sent once.
+ */
+class Subscriptions {
+    private final TaskContainer tasks;
+    private final Map<Long, Set<Subscriber>> byBoard = new ConcurrentHashMap<>();
+
+    /**
+     * Connection which receives the pushes
+     */
+    class Subscriber {
+        private final ServerMessage handler;
+        private final Executor executor;
+        private final Set<Long> boards = ConcurrentHashMap.newKeySet();
+
+        // Changed tasks which have not been pushed yet
+        private Set<Long> pending = new HashSet<>();
+        private boolean scheduled = false;
+
+        /**
+         * Main constructor
+         * @param handler handler of the connection, sends the pushes
+         * @param executor runs the pushes, in the order they are given
+         */
+        private Subscriber(ServerMessage handler, Executor executor){
+            this.handler = handler;
+            this.executor = executor;
+        }
+
+        /**
+         * Note a changed task. A push is scheduled unless one is waiting already
+         * @param taskId ID of the task
+         */
+        private void changed(long taskId){
+            synchronized (this){
+                pending.add(taskId);
+                if(scheduled)
+                    return;
+
+                scheduled = true;
+            }
+
+            try{
+                executor.execute(this::push);
+            }catch (RejectedExecutionException e){
+                // Connection has been closed
+                unsubscribeAll(this);
+            }
+        }
+
+        /**
+         * Send the current state of the noted tasks
+         */
+        private void push(){
+            Set<Long> ids;
+            synchronized (this){
+                ids = pending;
+                pending = new HashSet<>();
+                scheduled = false;
+            }
+
+            List<VersionedTask> changed = new ArrayList<>(ids.size());
+            List<Long> removed = new ArrayList<>();
+            for(long id: ids){
+                Task task = tasks.getTask(id);
+                if(task == null)
+                    removed.add(id);
+                else
+                    changed.add(task.getVersionedTask());
+            }
+
+            handler.push(changed, removed);
+        }
+    }
+
+    /**
+     * Main constructor
+     * @param tasks the tasks whose changes are pushed
+     */
+    Subscriptions(@NotNull TaskContainer tasks){
+        this.tasks = tasks;
+    }
+
+    /**
+     * Create a subscriber for a connection. It receives nothing until it
+     * subscribes to a board
+     * @param handler handler of the connection
+     * @param executor runs the pushes. Must run them in the order they are given
+     * @return the subscriber
+     */
+    Subscriber newSubscriber(@NotNull ServerMessage handler, @NotNull Executor executor){
+        return new Subscriber(handler, executor);
+    }
+
+    /**
+     * Start pushing the changes of the tasks of a board
+     * @param subscriber the subscriber
+     * @param boardId ID of the board
+     */
+    void subscribe(@NotNull Subscriber subscriber, long boardId){
+        subscriber.boards.add(boardId);
+        byBoard.computeIfAbsent(boardId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+
+    /**
+     * Stop pushing the changes of the tasks of a board
+     * @param subscriber the subscriber
+     * @param boardId ID of the board
+     */
+    void unsubscribe(@NotNull Subscriber subscriber, long boardId){
+        subscriber.boards.remove(boardId);
+        byBoard.computeIfPresent(boardId, (id, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    /**
+     * Stop pushing anything to a subscriber. Called when its connection closes
+     * @param subscriber the subscriber
+     */
+    void unsubscribeAll(@NotNull Subscriber subscriber){
+        for(long boardId: subscriber.boards)
+            unsubscribe(subscriber, boardId);
+    }
+
+    /**
+     * Note a change of a task for the subscribers of its boards. Only
+     * notes the ID, the task is read when it is pushed
+     * @param taskId ID of the task
+     * @param before boards of the task before the change
+     * @param after boards of the task after the change
+     * @param source subscriber of the connection which made the change, it is not told. May be null
+     */
+    void changed(long taskId, long[] before, long[] after, Subscriber source){
+        if(byBoard.isEmpty())
+            return;
+
+        // A subscriber of many of the boards is told once
+        Set<Subscriber> told = new HashSet<>();
+        for(long[] boards: new long[][]{before, after}){
+            for(long boardId: boards){
+                Set<Subscriber> subscribers = byBoard.get(boardId);
+                if(subscribers == null)
+                    continue;
+
+                for(Subscriber subscriber: subscribers){
+                    if(subscriber != source && told.add(subscriber))
+                        subscriber.changed(taskId);
+                }
+            }
+        }
+    }
+}
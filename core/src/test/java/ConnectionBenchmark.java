@@ -0,0 +1,95 @@
+import client.ClientAuth;
+import client.ClientMessage;
+import common.Boards;
+import common.TaskContainer;
+import common.UserContainer;
+import messages.MessageType;
+import messages.ProtocolConnection;
+import server.Server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Connects many idle clients to the server and reports how many threads and
+ * how much heap the server needs for them, with thread per client and with
+ * event loops.
+ * Usage: ConnectionBenchmark [connections] [event loops]
+ */
+public class ConnectionBenchmark {
+    private static int port = 14000;
+
+    private static long usedHeap(){
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void measure(String name, int connections, int eventLoops) throws Exception {
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+
+        // Start the server
+        TempDirectory data = new TempDirectory("minijira-connections");
+        Server server = new Server(null, port, eventLoops, data.path);
+        Thread serverThread = new Thread(server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        List<Socket> sockets = new ArrayList<>();
+        long start = System.nanoTime();
+
+        // Connect the clients, every client does one round trip
+        for(int i = 0; i < connections; i++){
+            Socket socket = new Socket("localhost", port);
+            sockets.add(socket);
+
+            TaskContainer tasks = new TaskContainer();
+            ProtocolConnection connection = new ProtocolConnection(
+                    null,
+                    new DataOutputStream(socket.getOutputStream()),
+                    new DataInputStream(socket.getInputStream()),
+                    new ClientMessage(tasks, new UserContainer(), new Boards(tasks), new ClientAuth())
+            );
+
+            connection.sendMessage(null, MessageType.GETPROJECTLIST);
+            connection.readMessage();
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf(
+                "%-18s connections: %6d  time: %6d ms  threads: +%5d  heap: +%6d KB%n",
+                name,
+                connections,
+                elapsed / 1_000_000,
+                ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore,
+                (usedHeap() - heapBefore) / 1024
+        );
+
+        for(Socket socket: sockets)
+            socket.close();
+
+        server.stop();
+        serverThread.join();
+        data.close();
+
+        port++;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int eventLoops = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        measure("event loops", connections, eventLoops);
+        measure("thread per client", connections, 0);
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,80 @@
+import common.TaskContainer;
+import common.UserContainer;
+import data.RawTask;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads and changes a shared TaskContainer and UserContainer from 1 to 64
+ * threads and reports the operations per second. Every tenth operation
+ * updates a task, the rest look up a task, a board or a user.
+ * Usage: ContainerThroughputBenchmark [tasks] [seconds per run]
+ */
+public class ContainerThroughputBenchmark {
+    private static final int USERS = 1000;
+    private static final int BOARDS = 100;
+
+    private static RawTask rawTask(long id){
+        return new RawTask(id, false, "task " + id, "benchmark", (int) (id % 5), 0, 0, 0, 0, new long[]{id % USERS}, new long[]{id % BOARDS});
+    }
+
+    private static void measure(TaskContainer tasks, UserContainer users, int taskCount, int threads, int seconds) throws Exception {
+        AtomicLong operations = new AtomicLong();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            workers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+
+                while(System.currentTimeMillis() < end){
+                    for(int j = 0; j < 100; j++){
+                        long id = random.nextInt(taskCount);
+
+                        switch ((int) (done++ % 10)){
+                            case 0:
+                                tasks.updateTask(rawTask(id));
+                                break;
+                            case 1:
+                                tasks.getTasks(id % BOARDS);
+                                break;
+                            case 2:
+                                users.getUser(id % USERS);
+                                break;
+                            default:
+                                tasks.getTask(id);
+                        }
+                    }
+                }
+
+                operations.addAndGet(done);
+            });
+            workers[i].start();
+        }
+
+        for(Thread worker: workers)
+            worker.join();
+
+        System.out.printf("threads: %3d  ops/s: %12.0f%n", threads, operations.get() / (double) seconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        TaskContainer tasks = new TaskContainer();
+        for(long id = 0; id < taskCount; id++)
+            tasks.newTask(rawTask(id));
+
+        UserContainer users = new UserContainer();
+        for(int i = 0; i < USERS; i++)
+            users.newUser("user " + i, new byte[32], new byte[32]);
+
+        System.out.println("Processors: " + Runtime.getRuntime().availableProcessors());
+
+        for(int threads = 1; threads <= 64; threads *= 2)
+            measure(tasks, users, taskCount, threads, seconds);
+    }
+}
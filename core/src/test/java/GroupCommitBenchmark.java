@@ -0,0 +1,56 @@
+import common.FsyncPolicy;
+import common.TaskContainer;
+import data.RawTask;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates tasks from many threads into a journaled TaskContainer and
+ * reports the acknowledged commits per second under every FsyncPolicy.
+ * Usage: GroupCommitBenchmark [threads] [seconds] [fsync interval MS]
+ */
+public class GroupCommitBenchmark {
+    private static void measure(FsyncPolicy policy, int threads, int seconds, long intervalMS) throws Exception {
+        Path directory = Files.createTempDirectory("minijira-commit");
+        TaskContainer tasks = new TaskContainer(directory.resolve("tasks"), directory.resolve("tasks.journal"), policy, intervalMS);
+
+        AtomicLong ids = new AtomicLong();
+        AtomicLong commits = new AtomicLong();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+
+        Thread[] workers = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            workers[i] = new Thread(() -> {
+                try{
+                    while(System.currentTimeMillis() < end){
+                        long id = ids.getAndIncrement();
+                        tasks.newTask(new RawTask(id, false, "task " + id, "benchmark", 1, 0, 0, 0, 0, new long[]{}, new long[]{0}));
+                        tasks.awaitDurable();
+                        commits.incrementAndGet();
+                    }
+                }catch (Exception e){
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[i].start();
+        }
+
+        for(Thread worker: workers)
+            worker.join();
+
+        tasks.close();
+
+        System.out.printf("%-8s threads: %3d  commits/s: %10.0f%n", policy, threads, commits.get() / (double) seconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        long intervalMS = args.length > 2 ? Long.parseLong(args[2]) : 100;
+
+        for(FsyncPolicy policy: FsyncPolicy.values())
+            measure(policy, threads, seconds, intervalMS);
+    }
+}
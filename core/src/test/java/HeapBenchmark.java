@@ -0,0 +1,43 @@
+import common.TaskContainer;
+import data.RawTask;
+
+/**
+ * Fills a TaskContainer with tasks like the ones the server holds and
+ * reports the heap used per task, measured after garbage collection.
+ * Usage: HeapBenchmark [tasks] [assignees per task]
+ */
+public class HeapBenchmark {
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 5; i++){
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int assignees = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        long before = usedHeap();
+
+        TaskContainer tasks = new TaskContainer();
+        for(long id = 0; id < taskCount; id++){
+            long[] users = new long[assignees];
+            for(int i = 0; i < assignees; i++)
+                users[i] = (id + i) % 1000;
+
+            tasks.newTask(new RawTask(id, false, "Task " + id, "", (int) (id % 5), id % 1000, 0, 0, -1, users, new long[]{id % 100}));
+        }
+
+        long after = usedHeap();
+
+        System.out.printf("Tasks: %d, assignees per task: %d%n", taskCount, assignees);
+        System.out.printf("Heap used: %.1f MB, %d bytes per task%n", (after - before) / 1e6, (after - before) / taskCount);
+
+        // Keep the container reachable until it is measured
+        System.out.println(tasks.getTask(0) != null ? "" : "missing");
+    }
+}
@@ -0,0 +1,75 @@
+import common.TaskContainer;
+import common.TaskPatch;
+import data.RawTask;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Lists all the tasks and saves them into a file while a few tasks change
+ * between the rounds, like the server does between client requests, and
+ * reports the time and the allocated bytes per round.
+ * Usage: ListingBenchmark [tasks] [rounds]
+ */
+public class ListingBenchmark {
+    private static long allocatedBytes(){
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private interface Round {
+        void run() throws Exception;
+    }
+
+    private static void measure(String name, int rounds, Round round) throws Exception {
+        // Warm up
+        for(int i = 0; i < Math.max(1, rounds / 10); i++)
+            round.run();
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for(int i = 0; i < rounds; i++)
+            round.run();
+        long ns = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+
+        System.out.printf("  %-8s %10.2f ms  %12d bytes per round%n", name, ns / 1e6 / rounds, bytes / rounds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        TaskContainer tasks = new TaskContainer();
+        for(long id = 0; id < taskCount; id++)
+            tasks.newTask(new RawTask(id, false, "Task " + id, "Description of task " + id, 0, 0, 0, 0, -1, new long[]{id % 1000, (id + 1) % 1000}, new long[]{id % 100}));
+
+        Random random = new Random(1);
+        Path file = Files.createTempFile("tasks", ".jsonl");
+        System.out.println("Tasks: " + taskCount + ", 10 changes per round");
+
+        Round change = () -> {
+            for(int i = 0; i < 10; i++)
+                tasks.patchTask(new TaskPatch(random.nextInt(taskCount)).priority(random.nextInt(5)));
+        };
+
+        measure("list", rounds, () -> {
+            change.run();
+            tasks.getRawTasks();
+        });
+
+        measure("board", rounds, () -> {
+            change.run();
+            for(long board = 0; board < 100; board++)
+                tasks.getRawTasks(board);
+        });
+
+        measure("save", rounds, () -> {
+            change.run();
+            tasks.saveTasks(file);
+        });
+
+        Files.deleteIfExists(file);
+    }
+}
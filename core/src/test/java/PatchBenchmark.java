@@ -0,0 +1,67 @@
+import common.TaskContainer;
+import common.TaskPatch;
+import data.RawTask;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Changes the priority of random tasks, once by replacing the whole task
+ * with updateTask() and once with a patch, and reports the time and the
+ * allocated bytes per update for tasks with more and more assignees.
+ * Usage: PatchBenchmark [tasks] [updates]
+ */
+public class PatchBenchmark {
+    private static RawTask rawTask(long id, int assignees){
+        long[] users = new long[assignees];
+        for(int i = 0; i < assignees; i++)
+            users[i] = i;
+
+        String description = "x".repeat(assignees * 10);
+        return new RawTask(id, false, "task " + id, description, 0, 0, 0, 0, -1, users, new long[]{id % 100});
+    }
+
+    private static long allocatedBytes(){
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void measure(String name, int updates, Runnable update){
+        // Warm up
+        for(int i = 0; i < updates / 10; i++)
+            update.run();
+
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for(int i = 0; i < updates; i++)
+            update.run();
+        long ns = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+
+        System.out.printf("  %-8s %8.2f us  %10d bytes per update%n", name, ns / 1e3 / updates, bytes / updates);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        for(int size = 1; size <= 100; size *= 10){
+            int assignees = size;
+            TaskContainer tasks = new TaskContainer();
+            tasks.enableIndexes();
+            tasks.enableSearch();
+            for(long id = 0; id < taskCount; id++)
+                tasks.newTask(rawTask(id, assignees));
+
+            Random random = new Random(1);
+            System.out.println("Assignees per task: " + assignees);
+
+            measure("update", updates, () -> {
+                RawTask raw = rawTask(random.nextInt(taskCount), assignees);
+                raw.priority = random.nextInt(5);
+                tasks.updateTask(raw);
+            });
+
+            measure("patch", updates, () -> tasks.patchTask(new TaskPatch(random.nextInt(taskCount)).priority(random.nextInt(5))));
+        }
+    }
+}
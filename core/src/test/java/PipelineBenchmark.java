@@ -0,0 +1,134 @@
+import client.ClientAuth;
+import client.ClientMessage;
+import client.Sync;
+import common.Boards;
+import common.Task;
+import common.TaskContainer;
+import common.UserContainer;
+import messages.ProtocolConnection;
+import server.Server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Sends task updates to the server through a proxy which delays the bytes
+ * in both directions, once waiting for every response and once with many
+ * requests on the way, and reports the time per update.
+ * Usage: PipelineBenchmark [updates] [round trip MS]
+ */
+public class PipelineBenchmark {
+    private static final int PORT = 15000;
+    private static final int PROXY_PORT = 15001;
+
+    /**
+     * Forward the bytes from one socket to another after a delay
+     * @param from source
+     * @param to destination
+     * @param delayMS one way delay
+     */
+    private static void forward(Socket from, Socket to, long delayMS){
+        BlockingQueue<Object[]> queue = new LinkedBlockingQueue<>();
+
+        Thread reader = new Thread(() -> {
+            try{
+                InputStream in = from.getInputStream();
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while((count = in.read(buffer)) != -1)
+                    queue.add(new Object[]{System.nanoTime() + delayMS * 1_000_000, Arrays.copyOf(buffer, count)});
+            }catch (IOException e){
+                // Closed
+            }
+        });
+
+        Thread writer = new Thread(() -> {
+            try{
+                OutputStream out = to.getOutputStream();
+                while(true){
+                    Object[] chunk = queue.take();
+                    long wait = (long) chunk[0] - System.nanoTime();
+                    if(wait > 0)
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+
+                    out.write((byte[]) chunk[1]);
+                    out.flush();
+                }
+            }catch (IOException | InterruptedException e){
+                // Closed
+            }
+        });
+
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long roundTripMS = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+        TempDirectory data = new TempDirectory("minijira-pipeline");
+        Server jiraServer = new Server(null, PORT, 1, data.path);
+        Thread serverThread = new Thread(jiraServer);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        // Proxy with the latency of the link
+        ServerSocket proxy = new ServerSocket(PROXY_PORT);
+        Thread proxyThread = new Thread(() -> {
+            try{
+                Socket client = proxy.accept();
+                Socket server = new Socket("localhost", PORT);
+                forward(client, server, roundTripMS / 2);
+                forward(server, client, roundTripMS / 2);
+            }catch (IOException e){
+                throw new RuntimeException(e);
+            }
+        });
+        proxyThread.setDaemon(true);
+        proxyThread.start();
+
+        Socket socket = new Socket("localhost", PROXY_PORT);
+        TaskContainer tasks = new TaskContainer();
+        ClientMessage handler = new ClientMessage(tasks, new UserContainer(), new Boards(tasks), new ClientAuth());
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        ProtocolConnection connection = new ProtocolConnection(null, new DataOutputStream(socket.getOutputStream()), in, handler);
+        Sync sync = new Sync(connection, in, handler);
+        sync.start();
+
+        System.out.println("Round trip: " + roundTripMS + " ms");
+
+        // One round trip per update, so only a few of them
+        int waited = Math.max(1, Math.min(updates, (int) (5000 / Math.max(1, roundTripMS))));
+        long start = System.nanoTime();
+        for(int i = 0; i < waited; i++)
+            sync.updateTask(new Task(i, "task " + i, "", 0, 0, null, i % 5));
+        long ns = System.nanoTime() - start;
+        System.out.printf("  %-10s %6d updates  %10.3f ms per update  %8.1f s per %d%n", "waiting", waited, ns / 1e6 / waited, ns / 1e9 * updates / waited, updates);
+
+        start = System.nanoTime();
+        for(int i = 0; i < updates; i++)
+            sync.updateTaskAsync(new Task(i, "task " + i, "", 0, 0, null, i % 5));
+        sync.awaitAll();
+        ns = System.nanoTime() - start;
+        System.out.printf("  %-10s %6d updates  %10.3f ms per update  %8.1f s per %d%n", "pipelined", updates, ns / 1e6 / updates, ns / 1e9, updates);
+
+        socket.close();
+        jiraServer.stop();
+        serverThread.join();
+        data.close();
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,54 @@
+import common.Task;
+import common.TaskContainer;
+import data.RawTask;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fills a TaskContainer with generated tasks, enables the full-text index
+ * and reports how long searches for rare, common and combined words take.
+ * Usage: SearchBenchmark [tasks] [searches per word]
+ */
+public class SearchBenchmark {
+    private static final String[] COMMON = {"fix", "add", "update", "remove", "refactor", "test", "bug", "feature"};
+    private static final String[] AREAS = {"login", "server", "client", "board", "journal", "storage", "index", "network"};
+
+    private static RawTask rawTask(long id, Random random){
+        String title = COMMON[random.nextInt(COMMON.length)] + " " + AREAS[random.nextInt(AREAS.length)] + " " + id;
+        String description = "Ticket " + id + " about the " + AREAS[random.nextInt(AREAS.length)] + ", reported by user" + random.nextInt(10_000);
+
+        return new RawTask(id, false, title, description, 0, 0, 0, 0, 0, new long[]{}, new long[]{0});
+    }
+
+    private static void measure(TaskContainer tasks, String text, int searches){
+        List<Task> found = null;
+
+        long start = System.nanoTime();
+        for(int i = 0; i < searches; i++)
+            found = tasks.search(text, 20);
+        double ms = (System.nanoTime() - start) / 1e6 / searches;
+
+        System.out.printf("%-28s %8.3f ms  (%d results)%n", "\"" + text + "\"", ms, found.size());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int taskCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int searches = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Random random = new Random(1);
+        TaskContainer tasks = new TaskContainer();
+        for(long id = 0; id < taskCount; id++)
+            tasks.newTask(rawTask(id, random));
+
+        long start = System.nanoTime();
+        tasks.enableSearch();
+        System.out.printf("Indexed %d tasks in %d ms%n", taskCount, (System.nanoTime() - start) / 1_000_000);
+
+        measure(tasks, String.valueOf(taskCount / 2), searches);
+        measure(tasks, "user42", searches);
+        measure(tasks, "journal user42", searches);
+        measure(tasks, "fix", searches);
+        measure(tasks, "refactor storage", searches);
+    }
+}
@@ -0,0 +1,51 @@
+import common.TaskContainer;
+import data.RawTask;
+
+import com.google.gson.Gson;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes a task directory with the given numbers of tasks and reports how
+ * long TaskContainer takes to import it. Run it a second time with
+ * -Djava.util.concurrent.ForkJoinPool.common.parallelism=1 to compare with
+ * a single thread.
+ * Usage: StartupBenchmark [task count] [task count] ...
+ */
+public class StartupBenchmark {
+    private static final Gson gson = new Gson();
+
+    private static Path writeTasks(int count) throws Exception {
+        Path directory = Files.createTempDirectory("minijira-startup");
+
+        for(int id = 0; id < count; id++){
+            RawTask task = new RawTask(id, false, "task " + id, "benchmark task number " + id, id % 5, 0, 0, 0, 0, new long[]{id % 100}, new long[]{id % 10});
+            Files.writeString(directory.resolve(String.valueOf(id)), gson.toJson(task));
+        }
+
+        return directory;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {10_000, 100_000, 1_000_000};
+        if(args.length > 0){
+            counts = new int[args.length];
+            for(int i = 0; i < args.length; i++)
+                counts[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.println("Parallelism: " + ForkJoinPool.getCommonPoolParallelism());
+
+        for(int count: counts){
+            Path directory = writeTasks(count);
+
+            long start = System.nanoTime();
+            TaskContainer tasks = new TaskContainer(directory);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("tasks: %8d  imported: %8d  startup: %6d ms%n", count, tasks.getTasks().size(), elapsed / 1_000_000);
+        }
+    }
+}
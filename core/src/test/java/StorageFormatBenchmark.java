@@ -0,0 +1,37 @@
+import common.StorageFormat;
+import common.TaskContainer;
+import data.RawTask;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Saves and loads a task file in every StorageFormat and reports the time
+ * taken and the size of the file.
+ * Usage: StorageFormatBenchmark [task count]
+ */
+public class StorageFormatBenchmark {
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        TaskContainer tasks = new TaskContainer();
+        for(int id = 0; id < count; id++)
+            tasks.newTask(new RawTask(id, false, "task " + id, "benchmark task number " + id, id % 5, 0, 0, 0, 0, new long[]{id % 100}, new long[]{id % 10}));
+
+        for(StorageFormat format: StorageFormat.values()){
+            Path file = Files.createTempFile("minijira-format", "");
+            tasks.setStorageFormat(format);
+
+            long start = System.nanoTime();
+            tasks.saveTasks(file);
+            long saved = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TaskContainer loaded = new TaskContainer(file);
+            long load = System.nanoTime() - start;
+
+            System.out.printf("%-6s tasks: %8d  save: %6d ms  load: %6d ms  size: %10d bytes%n",
+                    format, loaded.getTasks().size(), saved / 1_000_000, load / 1_000_000, Files.size(file));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Temporary directory for the data of a test server. Closing it deletes
+ * the directory with everything in it
+ */
+public class TempDirectory implements AutoCloseable {
+    public final Path path;
+
+    /**
+     * Main constructor. Creates the directory
+     * @param prefix prefix of the name of the directory
+     * @throws IOException If the directory can not be created
+     */
+    public TempDirectory(String prefix) throws IOException {
+        path = Files.createTempDirectory(prefix);
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<Path> paths;
+        try(Stream<Path> walk = Files.walk(path)){
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for(Path file: paths)
+            Files.delete(file);
+    }
+}
@@ -0,0 +1,138 @@
+import client.ClientAuth;
+import client.ClientMessage;
+import client.InvalidResponseException;
+import client.Sync;
+import common.Boards;
+import common.Task;
+import common.TaskContainer;
+import common.TaskPatch;
+import common.UserContainer;
+import messages.ProtocolConnection;
+import server.Server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Two clients change the same task. The client which has not seen the
+ * change of the other one is rejected, until it has fetched the task again.
+ * Usage: VersionConflictTest
+ */
+public class VersionConflictTest {
+    private static final int PORT = 15002;
+
+    /**
+     * Client connection with its own tasks
+     */
+    private static class Client {
+        final TaskContainer tasks = new TaskContainer();
+        final ClientMessage handler = new ClientMessage(tasks, new UserContainer(), new Boards(tasks), new ClientAuth());
+        final Sync sync;
+
+        Client() throws IOException {
+            Socket socket = new Socket("localhost", PORT);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            ProtocolConnection connection = new ProtocolConnection(null, new DataOutputStream(socket.getOutputStream()), in, handler);
+            sync = new Sync(connection, in, handler);
+            sync.start();
+        }
+    }
+
+    /**
+     * Throw if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    private static void check(boolean condition, String message){
+        if(!condition)
+            throw new IllegalStateException(message);
+    }
+
+    /**
+     * Request which may be rejected
+     */
+    private interface Request {
+        void send() throws IOException;
+    }
+
+    /**
+     * Check whether a request is rejected
+     * @param request the request
+     * @return true if the server answered with ERROR
+     */
+    private static boolean rejected(Request request) throws IOException {
+        try{
+            request.send();
+            return false;
+        }catch (InvalidResponseException e){
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try(TempDirectory data = new TempDirectory("minijira-conflict")){
+            Server server = new Server(null, PORT, 1, data.path);
+            Thread serverThread = new Thread(server);
+            serverThread.setDaemon(true);
+            serverThread.start();
+            Thread.sleep(500);
+
+            run();
+
+            server.stop();
+            serverThread.join();
+        }
+
+        System.exit(0);
+    }
+
+    private static void run() throws Exception {
+
+        Client a = new Client();
+        Client b = new Client();
+
+        // Both clients have the task and its version
+        a.sync.createTask(new Task(-1, "created", "", 0, 0, null, 1));
+        long id = a.tasks.getTasks().get(0).getId();
+        b.sync.getAllTasks();
+        check(b.handler.getServerVersion(id) != null, "listing has no version");
+
+        // A changes the task, B has not seen the change
+        Task fromA = a.tasks.getTask(id);
+        fromA.setTitle("from A");
+        a.sync.updateTask(fromA);
+
+        Task fromB = b.tasks.getTask(id);
+        fromB.setTitle("from B");
+        check(rejected(() -> b.sync.updateTask(fromB)), "stale update was accepted");
+        check(rejected(() -> b.sync.patchTaskIfUnchanged(new TaskPatch(id).priority(5))), "stale patch was accepted");
+        System.out.println("Stale update and patch were rejected");
+
+        // After fetching the task again B bases its change on the change of A
+        b.sync.getAllTasks();
+        check(b.tasks.getTask(id).getTitle().equals("from A"), "B did not receive the change of A");
+        Task again = b.tasks.getTask(id);
+        again.setTitle("from B");
+        b.sync.updateTask(again);
+
+        // Now A is the stale one
+        check(rejected(() -> a.sync.patchTaskIfUnchanged(new TaskPatch(id).priority(3))), "stale patch of A was accepted");
+
+        // Updates in a row are based on the versions of their replies
+        b.sync.patchTaskIfUnchanged(new TaskPatch(id).priority(4));
+        b.sync.patchTaskIfUnchanged(new TaskPatch(id).priority(2));
+
+        // A patch without a version is merged with the changes of the others
+        a.sync.patchTask(new TaskPatch(id).description("from A"));
+
+        Client c = new Client();
+        c.sync.getAllTasks();
+        Task stored = c.tasks.getTask(id);
+        check(stored.getTitle().equals("from B") && stored.getPriority() == 2 && stored.getDescription().equals("from A"),
+                "server has " + stored.getTitle() + " " + stored.getPriority() + " " + stored.getDescription());
+        check(a.tasks.getTask(id).getTitle().equals("from B"), "reply of the patch did not update the task of A");
+        System.out.println("Changes based on the current version were accepted");
+    }
+}
@@ -0,0 +1,149 @@
+package common;
+
+import data.RawTask;
+import data.RawUser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static common.Checks.check;
+import static common.Checks.fails;
+
+/**
+ * Writes records with the binary codecs and reads them back, then feeds
+ * the reader truncated and corrupt input, which has to fail with an
+ * IOException instead of a wrong record or a huge allocation.
+ * Usage: BinaryCodecTest
+ */
+public class BinaryCodecTest {
+    private static final Path SOURCE = Path.of("test");
+
+    /**
+     * Write records into a binary file in memory
+     * @param codec codec of the records
+     * @param records the records
+     * @return contents of the file
+     */
+    @SafeVarargs
+    private static <R> byte[] write(BinaryCodec.RecordCodec<R> codec, R... records) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        BinaryCodec.writeHeader(out);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for(R record: records)
+            BinaryCodec.writeRecord(out, codec, record, buffer);
+
+        out.flush();
+        return file.toByteArray();
+    }
+
+    /**
+     * Create a reader of a binary file in memory
+     * @param codec codec of the records
+     * @param bytes contents of the file
+     * @return the reader
+     */
+    private static <R> BinaryCodec.RecordReader<R> reader(BinaryCodec.RecordCodec<R> codec, byte[] bytes) throws IOException {
+        return new BinaryCodec.RecordReader<>(new DataInputStream(new ByteArrayInputStream(bytes)), codec, SOURCE);
+    }
+
+    /**
+     * Create a file with one TASK record whose title has a length prefix
+     * @param titleLength the length prefix of the title
+     * @return contents of the file
+     */
+    private static byte[] taskWithTitleLength(int titleLength) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(payload);
+        fields.writeLong(1);
+        fields.writeBoolean(false);
+        fields.writeInt(titleLength);
+        fields.write(new byte[64]);
+        fields.flush();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(file);
+        BinaryCodec.writeHeader(out);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.flush();
+        return file.toByteArray();
+    }
+
+    /**
+     * Check that two tasks have the same fields
+     * @param a first task
+     * @param b second task
+     * @return true if the fields are equal
+     */
+    private static boolean same(RawTask a, RawTask b){
+        return a.taskId == b.taskId && a.isCompleted == b.isCompleted && Objects.equals(a.title, b.title)
+                && Objects.equals(a.description, b.description) && a.priority == b.priority && a.createdBy == b.createdBy
+                && a.deadlineMS == b.deadlineMS && a.dateCreatedMS == b.dateCreatedMS && a.masterTaskId == b.masterTaskId
+                && Arrays.equals(a.assignedEmployees, b.assignedEmployees) && Arrays.equals(a.boards, b.boards);
+    }
+
+    public static void main(String[] args) throws Exception {
+        RawTask full = new RawTask(7, true, "T\u012btle \u2713", "line\nbreak", -3, 11, 1_000, 2_000, 5, new long[]{1, 2}, new long[]{Long.MAX_VALUE});
+        RawTask empty = new RawTask(8, false, null, "", 0, -1, 0, 0, 0, null, new long[0]);
+
+        byte[] tasks = write(BinaryCodec.TASK, full, empty);
+        BinaryCodec.RecordReader<RawTask> taskReader = reader(BinaryCodec.TASK, tasks);
+        check(same(full, taskReader.read()), "task with all fields differs");
+        check(same(empty, taskReader.read()), "task with nulls differs");
+        check(taskReader.read() == null, "records after the last one");
+
+        RawUser user = new RawUser(3, "user", new byte[]{1, -1}, null, null, new long[]{4}, new int[]{2}, null);
+        RawUser read = reader(BinaryCodec.USER, write(BinaryCodec.USER, user)).read();
+        check(read.userId == 3 && read.username.equals("user") && Arrays.equals(read.passwordHash, user.passwordHash)
+                && read.userEmail == null && read.lastOnline == null && Arrays.equals(read.projects, user.projects)
+                && Arrays.equals(read.projectRights, user.projectRights) && read.friendList == null, "user differs");
+
+        Map.Entry<Long, String> board = new AbstractMap.SimpleEntry<>(9L, "board");
+        check(board.equals(reader(BinaryCodec.BOARD, write(BinaryCodec.BOARD, board)).read()), "board differs");
+        System.out.println("Tasks, users and boards survive a round trip");
+
+        check(BinaryCodec.hasHeader(new ByteArrayInputStream(tasks)), "header is not recognized");
+        check(!BinaryCodec.hasHeader(new ByteArrayInputStream("{\"taskId\":1}".getBytes())), "JSON is taken for binary");
+        IOException magic = fails(IOException.class, () -> reader(BinaryCodec.TASK, "MJX\1".getBytes()), "wrong magic was accepted");
+        check(magic.getMessage().contains("Not a binary"), "wrong magic: " + magic.getMessage());
+
+        // The input ends in the middle of the first record
+        byte[] truncated = Arrays.copyOf(tasks, tasks.length - 40);
+        BinaryCodec.RecordReader<RawTask> truncatedReader = reader(BinaryCodec.TASK, truncated);
+        truncatedReader.read();
+        fails(EOFException.class, truncatedReader::read, "truncated record was accepted");
+        System.out.println("Headers are checked, truncated records fail");
+
+        // Lengths of records which can not be right
+        for(int length: new int[]{-1, Integer.MAX_VALUE}){
+            byte[] broken = Arrays.copyOf(tasks, tasks.length);
+            broken[4] = (byte) (length >>> 24);
+            broken[5] = (byte) (length >>> 16);
+            broken[6] = (byte) (length >>> 8);
+            broken[7] = (byte) length;
+
+            IOException e = fails(IOException.class, () -> reader(BinaryCodec.TASK, broken).read(), "record length " + length + " was accepted");
+            check(e.getMessage().contains("Broken record") && e.getMessage().contains("offset 4"), "record length " + length + ": " + e.getMessage());
+        }
+
+        // Lengths of strings inside a record which can not be right
+        for(int length: new int[]{-16, 65, Integer.MAX_VALUE}){
+            IOException e = fails(IOException.class, () -> reader(BinaryCodec.TASK, taskWithTitleLength(length)).read(),
+                    "string length " + length + " was accepted");
+            check(e.getMessage().contains("Broken record") && e.getMessage().contains("does not fit"), "string length " + length + ": " + e.getMessage());
+        }
+        check(reader(BinaryCodec.TASK, taskWithTitleLength(-1)) != null, "reader of a null title failed");
+        System.out.println("Corrupt lengths fail without allocating");
+    }
+}
@@ -0,0 +1,49 @@
+package common;
+
+import java.util.Arrays;
+
+import static common.Checks.check;
+
+/**
+ * Records changes into a small ChangeLog and checks which changes it can
+ * tell after the oldest ones have been dropped.
+ * Usage: ChangeLogTest
+ */
+public class ChangeLogTest {
+    public static void main(String[] args){
+        ChangeLog log = new ChangeLog(4, 100);
+        check(log.current() == 100, "sequence does not start after its number");
+
+        check(log.record(1, false) == 101, "first change is not numbered after the start");
+        log.record(2, false);
+        log.record(1, false);
+        log.record(2, true);
+
+        // A task changed many times is listed once, by its last change
+        TaskChanges all = log.since(100);
+        check(Arrays.equals(all.getChanged(), new long[]{1}), "changed " + Arrays.toString(all.getChanged()));
+        check(Arrays.equals(all.getRemoved(), new long[]{2}), "removed " + Arrays.toString(all.getRemoved()));
+        check(all.getSequence() == 104, "changes end at " + all.getSequence());
+
+        TaskChanges recent = log.since(103);
+        check(recent.getChanged().length == 0 && Arrays.equals(recent.getRemoved(), new long[]{2}), "changes after 103");
+
+        TaskChanges none = log.since(104);
+        check(none.getChanged().length == 0 && none.getRemoved().length == 0, "changes since the last one");
+        check(log.since(105) == null, "number from the future was accepted");
+        System.out.println("Changes since a number are listed once per task");
+
+        // The fifth change drops the first one, the floor moves to its number
+        log.record(3, false);
+        check(log.since(100) == null, "dropped change was told");
+        TaskChanges afterFloor = log.since(101);
+        check(afterFloor != null && afterFloor.getSequence() == 105, "changes since the floor are not told");
+        check(Arrays.equals(afterFloor.getChanged(), new long[]{1, 3}), "changed since the floor " + Arrays.toString(afterFloor.getChanged()));
+
+        for(long id = 10; id < 20; id++)
+            log.record(id, false);
+        check(log.since(110) == null && log.since(111) != null, "floor does not follow the dropped changes");
+        check(log.since(111).getChanged().length == 4, "log keeps more than its capacity");
+        System.out.println("Changes before the floor are not told");
+    }
+}
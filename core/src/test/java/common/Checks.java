@@ -0,0 +1,74 @@
+package common;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks of the behaviour tests. The tests are plain programs, a failed
+ * check ends them with an exception
+ */
+class Checks {
+    /**
+     * Action which is expected to fail
+     */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    private Checks(){
+    }
+
+    /**
+     * Throw if a condition does not hold
+     * @param condition the condition
+     * @param message what went wrong
+     */
+    static void check(boolean condition, String message){
+        if(!condition)
+            throw new IllegalStateException(message);
+    }
+
+    /**
+     * Throw if an action does not fail with an exception of a type
+     * @param type expected type of the exception
+     * @param action the action
+     * @param message what went wrong if the action does not fail
+     * @return the exception
+     */
+    static <E extends Exception> E fails(Class<E> type, Action action, String message){
+        try{
+            action.run();
+        }catch (Exception e){
+            if(type.isInstance(e))
+                return type.cast(e);
+
+            throw new IllegalStateException(message + ", failed with " + e, e);
+        }
+
+        throw new IllegalStateException(message);
+    }
+
+    /**
+     * Delete a temporary directory with everything in it. The tests are in
+     * this package to reach its classes, so they can not use TempDirectory
+     * @param directory the directory
+     * @throws IOException If file IO fails
+     */
+    static void delete(Path directory) throws IOException {
+        if(!Files.exists(directory))
+            return;
+
+        List<Path> paths;
+        try(Stream<Path> walk = Files.walk(directory)){
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for(Path path: paths)
+            Files.delete(path);
+    }
+}
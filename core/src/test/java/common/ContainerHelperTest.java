@@ -0,0 +1,112 @@
+package common;
+
+import data.RawTask;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static common.Checks.check;
+
+/**
+ * Exports items into a directory again and again and checks that only the
+ * changed items are written and the files of removed and misnamed items
+ * are deleted.
+ * Usage: ContainerHelperTest
+ */
+public class ContainerHelperTest {
+    /**
+     * Create an item
+     * @param id ID of the item
+     * @param title title of the item
+     * @return the item
+     */
+    private static RawTask item(long id, String title){
+        return new RawTask(id, false, title, "", 0, -1, 0, 0, Task.NO_MASTER_TASK, new long[0], new long[]{1});
+    }
+
+    /**
+     * Create a helper over a map of items
+     * @param items the items by ID
+     * @return the helper
+     */
+    private static ContainerHelper<RawTask, RawTask> helper(Map<Long, RawTask> items){
+        return new ContainerHelper<>(items::values, item -> items.put(item.taskId, item), RawTask.class,
+                raw -> raw, item -> item, item -> item.taskId, BinaryCodec.TASK);
+    }
+
+    /**
+     * Set the modification time of a file far into the past, so a rewrite is seen
+     * @param file the file
+     */
+    private static void age(Path file) throws Exception {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+    }
+
+    /**
+     * Check whether a file was rewritten since age() was called on it
+     * @param file the file
+     * @return true if it was written again
+     */
+    private static boolean rewritten(Path file) throws Exception {
+        return Files.getLastModifiedTime(file).toMillis() != 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("minijira-helper");
+        try{
+            Map<Long, RawTask> items = new LinkedHashMap<>();
+            ContainerHelper<RawTask, RawTask> helper = helper(items);
+            for(long id = 1; id <= 3; id++)
+                items.put(id, item(id, "item " + id));
+
+            // The first export into a directory writes everything
+            helper.exportItems(directory);
+            for(long id = 1; id <= 3; id++){
+                check(Files.exists(directory.resolve(String.valueOf(id))), "item " + id + " was not written");
+                age(directory.resolve(String.valueOf(id)));
+            }
+
+            // Only the marked items are written again
+            items.get(1L).title = "changed without a mark";
+            items.get(2L).title = "changed";
+            helper.markDirty(items.get(2L));
+            helper.exportItems(directory);
+            check(!rewritten(directory.resolve("1")) && rewritten(directory.resolve("2")) && !rewritten(directory.resolve("3")),
+                    "export wrote unmarked items");
+
+            // The file of a removed item is deleted
+            helper.markRemoved(items.remove(3L));
+            helper.exportItems(directory);
+            check(!Files.exists(directory.resolve("3")) && Files.exists(directory.resolve("1")), "file of the removed item was kept");
+            System.out.println("Export writes only the changes");
+
+            // A file left by an older version under another name holds item 5
+            Files.writeString(directory.resolve("old-5"), Files.readString(directory.resolve("2")).replace("\"taskId\":2", "\"taskId\":5"));
+
+            Map<Long, RawTask> imported = new LinkedHashMap<>();
+            ContainerHelper<RawTask, RawTask> reader = helper(imported);
+            reader.importItems(directory);
+            check(imported.keySet().equals(Set.of(1L, 2L, 5L)), "imported " + imported.keySet());
+            check(imported.get(2L).title.equals("changed") && imported.get(1L).title.equals("item 1"), "imported items differ");
+
+            reader.exportItems(directory);
+            check(!Files.exists(directory.resolve("old-5")) && Files.exists(directory.resolve("5")), "misnamed file was not replaced");
+            reader.importItems(directory);
+            check(imported.size() == 3 && imported.get(5L).title.equals("changed"), "item of the misnamed file was lost");
+
+            // Another directory gets every item
+            Path copy = Files.createTempDirectory(directory, "copy");
+            reader.exportItems(copy);
+            try(var files = Files.list(copy)){
+                check(files.count() == 3, "export into a new directory missed items");
+            }
+            System.out.println("Misnamed files are deleted after their items are written");
+        }finally {
+            Checks.delete(directory);
+        }
+    }
+}
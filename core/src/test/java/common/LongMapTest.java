@@ -0,0 +1,80 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static common.Checks.check;
+import static common.Checks.fails;
+
+/**
+ * Runs random puts and removes on a LongMap and on a HashMap side by side
+ * and checks that they agree, also for keys which collide in the table.
+ * Usage: LongMapTest
+ */
+public class LongMapTest {
+    /**
+     * Check that the map has the same keys and values as the reference
+     * @param map the map
+     * @param reference the reference
+     */
+    private static void checkSame(LongMap<String> map, Map<Long, String> reference){
+        check(map.size() == reference.size(), "size " + map.size() + ", expected " + reference.size());
+        check(map.isEmpty() == reference.isEmpty(), "isEmpty does not match the size");
+
+        for(Map.Entry<Long, String> entry: reference.entrySet()){
+            check(entry.getValue().equals(map.get(entry.getKey())), "key " + entry.getKey() + " has " + map.get(entry.getKey()));
+            check(map.containsKey(entry.getKey()), "key " + entry.getKey() + " is missing");
+        }
+
+        List<String> values = new ArrayList<>(map.values());
+        List<String> expected = new ArrayList<>(reference.values());
+        values.sort(null);
+        expected.sort(null);
+        check(values.equals(expected), "values do not match");
+    }
+
+    public static void main(String[] args){
+        Random random = new Random(42);
+        LongMap<String> map = new LongMap<>();
+        Map<Long, String> reference = new HashMap<>();
+
+        // Few distinct keys, so removes hit present keys and runs of the table get holes
+        for(int i = 0; i < 200_000; i++){
+            long key = random.nextInt(2_000) - 1_000;
+            if(random.nextInt(3) == 0){
+                check(String.valueOf(reference.remove(key)).equals(String.valueOf(map.remove(key))), "remove of " + key);
+            }else{
+                String value = "v" + i;
+                check(String.valueOf(reference.put(key, value)).equals(String.valueOf(map.put(key, value))), "put of " + key);
+            }
+        }
+        checkSame(map, reference);
+        System.out.println("Random puts and removes agree with HashMap");
+
+        // Keys which are multiples of a large power of two land in few slots
+        LongMap<String> colliding = new LongMap<>();
+        Map<Long, String> collidingReference = new HashMap<>();
+        for(long i = 0; i < 1_000; i++){
+            colliding.put(i << 32, "c" + i);
+            collidingReference.put(i << 32, "c" + i);
+        }
+        for(long i = 0; i < 1_000; i += 2){
+            colliding.remove(i << 32);
+            collidingReference.remove(i << 32);
+        }
+        checkSame(colliding, collidingReference);
+        check(colliding.get(3L) == null && colliding.remove(3L) == null, "absent key was found");
+        System.out.println("Colliding keys are found after removes");
+
+        fails(IllegalArgumentException.class, () -> map.put(1, null), "null value was accepted");
+
+        map.clear();
+        check(map.isEmpty() && map.get(0) == null && map.values().isEmpty(), "clear left keys behind");
+        map.put(7, "again");
+        check("again".equals(map.get(7)) && map.size() == 1, "map does not work after clear");
+        System.out.println("Null values are rejected, clear empties the map");
+    }
+}
@@ -0,0 +1,89 @@
+package common;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static common.Checks.check;
+import static common.Checks.fails;
+
+/**
+ * Builds a tree of subtasks in a TaskContainer and checks that cycles are
+ * rejected and the rollups follow the changes of the subtasks.
+ * Usage: TaskHierarchyTest
+ */
+public class TaskHierarchyTest {
+    /**
+     * Create a task under a master task
+     * @param tasks container of the task
+     * @param id ID of the task
+     * @param master master task ID
+     * @param deadlineMS deadline of the task, 0 for none
+     * @return the task
+     */
+    private static Task task(TaskContainer tasks, long id, long master, long deadlineMS){
+        Task task = new Task(id, "task " + id, "", 1, deadlineMS, null, 0);
+        task.setMasterTaskId(master);
+        tasks.addTask(task);
+        return task;
+    }
+
+    /**
+     * Get the IDs of tasks
+     * @param tasks the tasks
+     * @return the IDs in the same order
+     */
+    private static List<Long> ids(List<Task> tasks){
+        return tasks.stream().map(Task::getId).collect(Collectors.toList());
+    }
+
+    public static void main(String[] args) throws Exception {
+        TaskContainer tasks = new TaskContainer();
+
+        // 1 has 2 and 3, 2 has 4 and 5, 4 has 6
+        task(tasks, 1, Task.NO_MASTER_TASK, 0);
+        Task two = task(tasks, 2, 1, 500);
+        task(tasks, 3, 1, 300);
+        Task four = task(tasks, 4, 2, 0);
+        task(tasks, 5, 2, 0);
+        task(tasks, 6, 4, 0);
+
+        // Subtasks of a task are in no particular order, the levels are
+        List<Long> subtree = ids(tasks.getSubtree(1));
+        check(subtree.size() == 5 && Set.copyOf(subtree.subList(0, 2)).equals(Set.of(2L, 3L))
+                && Set.copyOf(subtree.subList(2, 4)).equals(Set.of(4L, 5L)) && subtree.get(4) == 6L, "subtree " + subtree);
+        check(Set.copyOf(ids(tasks.getSubtasks(2))).equals(Set.of(4L, 5L)), "subtasks " + ids(tasks.getSubtasks(2)));
+        check(tasks.getSubtasks(6).isEmpty(), "leaf has subtasks");
+        check(!TaskHierarchy.hasParent(1, Task.NO_MASTER_TASK) && !TaskHierarchy.hasParent(1, 1) && TaskHierarchy.hasParent(1, 2),
+                "parents are not told apart");
+        System.out.println("Subtree is listed breadth first");
+
+        // A task can not be moved under itself or its subtasks
+        check(tasks.createsCycle(2, 6) && tasks.createsCycle(1, 4) && !tasks.createsCycle(6, 3), "cycles are not found");
+        fails(IllegalArgumentException.class, () -> two.setMasterTaskId(6), "cycle through a setter was accepted");
+        fails(IllegalArgumentException.class, () -> tasks.patchTask(new TaskPatch(1).masterTask(4)), "cycle through a patch was accepted");
+        check(two.getMasterTaskId() == 1 && tasks.getTask(1).getMasterTaskId() == Task.NO_MASTER_TASK, "rejected change was made");
+        System.out.println("Cycles are rejected");
+
+        TaskRollup rollup = tasks.getRollup(1);
+        check(rollup.getChildCount() == 2 && rollup.getCompletedCount() == 0 && rollup.getEarliestDeadlineMS() == 300,
+                "rollup " + rollup.getChildCount() + " " + rollup.getCompletedCount() + " " + rollup.getEarliestDeadlineMS());
+
+        tasks.getTask(3).complete();
+        tasks.getTask(3).setDeadlineMS(100);
+        rollup = tasks.getRollup(1);
+        check(rollup.getCompletedCount() == 1 && rollup.getEarliestDeadlineMS() == 100, "rollup does not follow the subtasks");
+
+        // Moving a subtask updates the rollups of both masters
+        four.setMasterTaskId(3);
+        check(tasks.getRollup(2).getChildCount() == 1 && tasks.getRollup(3).getChildCount() == 1, "move did not update the rollups");
+        check(ids(tasks.getSubtree(3)).equals(List.of(4L, 6L)), "moved subtask lost its subtasks");
+
+        tasks.removeTask(3);
+        rollup = tasks.getRollup(1);
+        check(rollup.getChildCount() == 1 && rollup.getCompletedCount() == 0 && rollup.getEarliestDeadlineMS() == 500,
+                "removed subtask is still in the rollup");
+        check(tasks.getRollup(42).getChildCount() == 0 && tasks.getRollup(42).getEarliestDeadlineMS() == 0, "unknown task has a rollup");
+        System.out.println("Rollups follow completion, deadlines, moves and removes");
+    }
+}
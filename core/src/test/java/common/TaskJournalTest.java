@@ -0,0 +1,99 @@
+package common;
+
+import data.RawTask;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static common.Checks.check;
+
+/**
+ * Changes tasks of a journaled TaskContainer and opens it again, also
+ * after a crash has torn the last line of the journal, and checks that
+ * compaction moves the changes into the snapshot.
+ * Usage: TaskJournalTest
+ */
+public class TaskJournalTest {
+    /**
+     * Create a task without a master task
+     * @param id ID of the task
+     * @param title title of the task
+     * @return the task
+     */
+    private static RawTask task(long id, String title){
+        return new RawTask(id, false, title, "", 0, -1, 0, 1, Task.NO_MASTER_TASK, new long[0], new long[]{1});
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("minijira-journal");
+        try{
+            Path snapshot = directory.resolve("tasks");
+            Path journal = directory.resolve("tasks.journal");
+
+            TaskContainer tasks = new TaskContainer(snapshot, journal);
+            tasks.newTask(task(1, "first"));
+            tasks.newTask(task(2, "second"));
+            tasks.newTask(task(3, "third"));
+            tasks.patchTask(new TaskPatch(1).title("patched").addAssignee(7));
+            tasks.removeTask(2);
+            tasks.close();
+            check(Files.size(snapshot) == 0, "snapshot was written without compaction");
+
+            // The snapshot is empty, everything comes from the journal
+            tasks = new TaskContainer(snapshot, journal);
+            check(tasks.getTasks().size() == 2, "replay has " + tasks.getTasks().size() + " tasks");
+            check(tasks.getTask(1).getTitle().equals("patched") && tasks.getTask(1).isAssignedTo(7), "patch was not replayed");
+            check(tasks.getTask(2) == null && tasks.getTask(3) != null, "remove was not replayed");
+            tasks.close();
+            System.out.println("Journal is replayed over the snapshot");
+
+            // A crash in the middle of a write leaves a torn line at the end
+            long before = Files.size(journal);
+            Files.write(journal, "{\"operation\":\"CREATE\",\"taskId\":4,\"ta".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            tasks = new TaskContainer(snapshot, journal);
+            check(tasks.getTasks().size() == 2 && tasks.getTask(4) == null, "torn line was applied");
+            check(Files.size(journal) == 0 && Files.size(snapshot) > 0, "torn journal was not compacted, " + before + " bytes before");
+
+            // New changes follow the compacted snapshot
+            tasks.newTask(task(5, "after crash"));
+            tasks.close();
+
+            tasks = new TaskContainer(snapshot, journal);
+            check(tasks.getTasks().size() == 3 && tasks.getTask(1).getTitle().equals("patched") && tasks.getTask(5) != null,
+                    "changes around the torn line were lost");
+            System.out.println("Torn line is dropped, the changes before it are kept");
+
+            // Saving compacts the journal into the snapshot
+            tasks.patchTask(new TaskPatch(3).priority(9));
+            tasks.saveTasks();
+            tasks.close();
+            check(Files.size(journal) == 0, "save did not empty the journal");
+
+            // Changes are written by the committer thread, with ALWAYS they can be awaited
+            tasks = new TaskContainer(snapshot, journal, FsyncPolicy.ALWAYS, 0);
+            check(tasks.getTask(3).getPriority() == 9, "compacted snapshot misses the patch");
+
+            // Commit compacts only a long journal
+            tasks.patchTask(new TaskPatch(3).priority(1));
+            tasks.commit();
+            tasks.awaitDurable();
+            check(Files.size(journal) > 0, "short journal was compacted");
+
+            for(int i = 0; i < 10_000; i++)
+                tasks.patchTask(new TaskPatch(5).priority(i));
+            tasks.commit();
+            check(Files.size(journal) == 0, "long journal was not compacted");
+            tasks.close();
+
+            tasks = new TaskContainer(snapshot, journal);
+            check(tasks.getTask(5).getPriority() == 9_999 && tasks.getTask(3).getPriority() == 1, "compaction lost changes");
+            tasks.close();
+            System.out.println("Save and long journals are compacted into the snapshot");
+        }finally {
+            Checks.delete(directory);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package common;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static common.Checks.check;
+
+/**
+ * Indexes a few tasks and checks the words, the ranking and the updates
+ * of the text index.
+ * Usage: TextIndexTest
+ */
+public class TextIndexTest {
+    /**
+     * Get the IDs of tasks
+     * @param tasks the tasks
+     * @return the IDs in the same order
+     */
+    private static long[] ids(List<Task> tasks){
+        return tasks.stream().mapToLong(Task::getId).toArray();
+    }
+
+    public static void main(String[] args){
+        check(TextIndex.tokenize("Fix the Login-page, v2!").equals(List.of("fix", "the", "login", "page", "v2")),
+                "words are " + TextIndex.tokenize("Fix the Login-page, v2!"));
+        check(TextIndex.tokenize(null).isEmpty() && TextIndex.tokenize(" ,. ").isEmpty(), "empty text has words");
+        System.out.println("Text is split into lower case words");
+
+        TextIndex index = new TextIndex();
+        Task inTitle = new Task(1, "Login page", "", 0, 0, null, 1);
+        Task inDescription = new Task(2, "Styles", "The login page needs new colours", 0, 0, null, 1);
+        Task unrelated = new Task(3, "Database", "Move to the new server", 0, 0, null, 1);
+        Task sameTitle = new Task(4, "Login page", "", 0, 0, null, 1);
+        for(Task task: new Task[]{inTitle, inDescription, unrelated, sameTitle})
+            index.update(task);
+
+        // Words of the title count more, equal scores are ordered by the ID
+        long[] found = ids(index.search("login", 10));
+        check(Arrays.equals(found, new long[]{1, 4, 2}), "login found " + Arrays.toString(found));
+        check(Arrays.equals(ids(index.search("LOGIN", 1)), new long[]{1}), "limit or case is not applied");
+        check(index.search("nothing", 10).isEmpty(), "unknown word was found");
+        check(index.search("new", 10).size() == 2 && index.search("new").size() == 2, "word of two descriptions");
+        System.out.println("Matches in the title rank first, ties by the ID");
+
+        // Indexing a task again replaces its old words
+        inTitle.setTitle("Signup form");
+        index.update(inTitle);
+        check(Arrays.equals(ids(index.search("login", 10)), new long[]{4, 2}), "old words of the task are still indexed");
+        check(Arrays.equals(ids(index.search("signup", 10)), new long[]{1}), "new words of the task are not indexed");
+
+        index.remove(sameTitle);
+        check(Arrays.equals(ids(index.search("login", 10)), new long[]{2}), "removed task was found");
+        System.out.println("Updated and removed tasks are indexed again");
+    }
+}